@@ -0,0 +1,189 @@
+/*
+ * Select query builder
+ * Copyright (C) 2014  Milosz Piglas [milosz@archeocs.com]
+ *    
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package pl.mpiglas.jqube.bench;
+
+import java.sql.Types;
+import java.util.Arrays;
+
+import pl.mpiglas.jqube.AttributesPair;
+import pl.mpiglas.jqube.Condition;
+import pl.mpiglas.jqube.Condition.Function;
+import pl.mpiglas.jqube.Condition.Operator;
+import pl.mpiglas.jqube.QueryBuilder;
+import pl.mpiglas.jqube.Schema;
+import pl.mpiglas.jqube.TableView;
+import pl.mpiglas.jqube.ViewAttribute.Aggregation;
+import pl.mpiglas.jqube.ViewsRelation;
+
+/**
+ * Schema used by benchmarks. Views form a chain: V0 &lt;- V1 &lt;- ... &lt;- Vn,
+ * where Vi.parent references V(i-1).id. The first view is wide - it has
+ * additional columns c0 ... cN.
+ * 
+ */
+public class BenchmarkSchema
+{
+    private final Schema schema;
+    private final TableView[] views;
+
+    /**
+     * Creates schema.
+     * 
+     * @param aViews
+     *            number of views in schema.
+     * @param aWideColumns
+     *            number of additional columns of the first view.
+     */
+    public BenchmarkSchema(int aViews, int aWideColumns)
+    {
+        schema = new Schema();
+        views = new TableView[aViews];
+        for (int i = 0; i < aViews; i++)
+        {
+            TableView v = new TableView(viewName(i), "T_" + i);
+            v.addAttribute("id", null, Types.INTEGER);
+            v.addAttribute("parent", null, Types.INTEGER);
+            v.addAttribute("name", null, Types.VARCHAR);
+            v.addAttribute("value", null, Types.DOUBLE);
+            if (i == 0)
+            {
+                for (int c = 0; c < aWideColumns; c++)
+                {
+                    v.addAttribute("c" + c, null, Types.INTEGER);
+                }
+                schema.addView(v);
+            } else
+            {
+                schema.addView(v, relation(views[i - 1], v));
+            }
+            views[i] = v;
+        }
+    }
+
+    /**
+     * @param aIndex
+     *            index of view
+     * @return name of view with given index.
+     */
+    public static String viewName(int aIndex)
+    {
+        return "V" + aIndex;
+    }
+
+    /**
+     * Creates relation parent.id = child.parent.
+     * 
+     * @param aParent
+     *            referenced view
+     * @param aChild
+     *            referencing view
+     * @return relation
+     */
+    public static ViewsRelation relation(TableView aParent, TableView aChild)
+    {
+        return new ViewsRelation(Arrays.asList(new AttributesPair(aParent
+                .getAttribute("id"), aChild.getAttribute("parent"))));
+    }
+
+    public final Schema getSchema()
+    {
+        return schema;
+    }
+
+    /**
+     * @param aIndex
+     *            index of view
+     * @return view with given index.
+     */
+    public final TableView getView(int aIndex)
+    {
+        return views[aIndex];
+    }
+
+    public final int size()
+    {
+        return views.length;
+    }
+
+    /**
+     * Query reading single view: three attributes, one condition.
+     * 
+     * @return builder
+     */
+    public QueryBuilder small()
+    {
+        QueryBuilder b = new QueryBuilder(schema);
+        TableView v = views[1];
+        b.add(v.getAttribute("id").select().build());
+        b.add(v.getAttribute("name").select()
+                .withCondition(new Condition(Function.AND, Operator.LIKE))
+                .build());
+        b.add(v.getAttribute("value").select().withOrderBy(true).build());
+        return b;
+    }
+
+    /**
+     * Query joining four views with conditions, grouping and ordering.
+     * 
+     * @return builder
+     */
+    public QueryBuilder medium()
+    {
+        QueryBuilder b = new QueryBuilder(schema);
+        b.add(views[1].getAttribute("name").select().withGroupBy(true)
+                .withOrderBy(true).build());
+        b.add(views[2].getAttribute("name").select().withGroupBy(true)
+                .withAliasName("name2").build());
+        b.add(views[3].getAttribute("id").select()
+                .withAggregate(Aggregation.COUNT).withAliasName("cnt")
+                .build());
+        Condition range = new Condition(Function.AND, Operator.GE);
+        range.and(Operator.LT);
+        b.add(views[3].getAttribute("value").select().withVisible(false)
+                .withCondition(range).build());
+        Condition names = new Condition(Function.AND, Operator.EQ);
+        names.or(Operator.EQ).or(Operator.EQ);
+        b.add(views[4].getAttribute("name").select().withVisible(false)
+                .withCondition(names).build(), true);
+        return b;
+    }
+
+    /**
+     * Query reading many columns of wide view joined with seven other views.
+     * 
+     * @param aColumns
+     *            number of columns read from the wide view
+     * @return builder
+     */
+    public QueryBuilder wide(int aColumns)
+    {
+        QueryBuilder b = new QueryBuilder(schema);
+        for (int c = 0; c < aColumns; c++)
+        {
+            b.add(views[0].getAttribute("c" + c).select().build());
+        }
+        for (int i = 1; i < 8; i++)
+        {
+            b.add(views[i].getAttribute("name").select()
+                    .withAliasName("name" + i)
+                    .withCondition(new Condition(Function.AND, Operator.EQ))
+                    .build(), i % 2 == 0);
+        }
+        return b;
+    }
+}
@@ -0,0 +1,234 @@
+/*
+ * Select query builder
+ * Copyright (C) 2014  Milosz Piglas [milosz@archeocs.com]
+ *    
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package pl.mpiglas.jqube.bench;
+
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import pl.mpiglas.jqube.Condition;
+import pl.mpiglas.jqube.Condition.Function;
+import pl.mpiglas.jqube.Condition.Operator;
+import pl.mpiglas.jqube.Dialect;
+import pl.mpiglas.jqube.InListPolicy;
+import pl.mpiglas.jqube.ParamLayout;
+import pl.mpiglas.jqube.Query;
+import pl.mpiglas.jqube.QueryBuilder;
+import pl.mpiglas.jqube.QueryView;
+import pl.mpiglas.jqube.TableView;
+
+/**
+ * Concurrency stress test of frozen views. Views are created once and
+ * shared by all threads, which render every variant of their queries (IN
+ * buckets, masks of predicates, pages) at the same time, starting with cold
+ * caches. Meanwhile conditions used to build views are modified and schema
+ * is extended with new views. Every
+ * result is compared with reference rendered by single thread from
+ * separately built views. Does not require JMH.
+ * <p>
+ * Usage: ConcurrencyStress [threads] [iterations]
+ * 
+ */
+public class ConcurrencyStress
+{
+    private final BenchmarkSchema schema = new BenchmarkSchema(16, 50);
+    private final List<Condition> mutable = new ArrayList<>();
+
+    public static void main(String[] args) throws InterruptedException
+    {
+        int threads = args.length > 0 ? Integer.parseInt(args[0]) : 2 * Runtime
+                .getRuntime().availableProcessors();
+        int iterations = args.length > 1 ? Integer.parseInt(args[1]) : 2000;
+        int failures = new ConcurrencyStress().run(threads, iterations);
+        System.out.println(failures == 0 ? "OK" : "FAILED " + failures);
+        System.exit(failures == 0 ? 0 : 1);
+    }
+
+    /**
+     * Runs test.
+     * 
+     * @param aThreads
+     *            number of rendering threads
+     * @param aIterations
+     *            number of iterations of each thread
+     * @return number of results different from reference.
+     * @throws InterruptedException
+     *             if interrupted while waiting for threads.
+     */
+    public int run(int aThreads, final int aIterations)
+            throws InterruptedException
+    {
+        final List<String> reference = render(views());
+        final List<QueryView> shared = views();
+        final AtomicInteger failures = new AtomicInteger();
+        final CountDownLatch start = new CountDownLatch(1);
+        List<Thread> workers = new ArrayList<>();
+        for (int t = 0; t < aThreads; t++)
+        {
+            workers.add(new Thread(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    await(start);
+                    try
+                    {
+                        for (int i = 0; i < aIterations; i++)
+                        {
+                            List<String> result = render(shared);
+                            for (int r = 0; r < result.size(); r++)
+                            {
+                                if (!result.get(r).equals(reference.get(r)))
+                                {
+                                    failures.incrementAndGet();
+                                }
+                            }
+                        }
+                    } catch (RuntimeException e)
+                    {
+                        failures.incrementAndGet();
+                        e.printStackTrace();
+                    }
+                }
+            }));
+        }
+        workers.add(new Thread(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                await(start);
+                for (int i = 0; i < 100; i++)
+                {
+                    for (Condition c : mutable)
+                    {
+                        Condition last = c;
+                        while (last.getNext() != null)
+                        {
+                            last = last.getNext();
+                        }
+                        last.or(Operator.EQ);
+                    }
+                    TableView extra = new TableView("X" + i, "X_" + i);
+                    extra.addAttribute("id", null, Types.INTEGER);
+                    extra.addAttribute("parent", null, Types.INTEGER);
+                    schema.getSchema().addView(extra,
+                            BenchmarkSchema.relation(schema.getView(0), extra));
+                }
+            }
+        }));
+        for (Thread w : workers)
+        {
+            w.start();
+        }
+        start.countDown();
+        for (Thread w : workers)
+        {
+            w.join();
+        }
+        return failures.get();
+    }
+
+    private static void await(CountDownLatch aLatch)
+    {
+        try
+        {
+            aLatch.await();
+        } catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private List<QueryView> views()
+    {
+        List<QueryView> views = new ArrayList<>();
+        views.add(schema.small().createView("small"));
+        views.add(schema.medium().createView("medium"));
+        views.add(schema.wide(20).createView("wide"));
+        QueryBuilder b = new QueryBuilder(schema.getSchema());
+        Condition in = new Condition(Function.AND, Operator.IN);
+        Condition name = new Condition(Function.AND, Operator.EQ);
+        b.add(schema.getView(2).getAttribute("id").select().withCondition(in)
+                .withOrderBy(true).build());
+        b.add(schema.getView(3).getAttribute("name").select()
+                .withCondition(name).withOrderBy(true).build());
+        views.add(b.createView("lists"));
+        mutable.add(in);
+        mutable.add(name);
+        return views;
+    }
+
+    private static List<String> render(List<QueryView> aViews)
+    {
+        List<String> result = new ArrayList<>();
+        InListPolicy policy = new InListPolicy(8, "TMP_IN", "LIST_ID", "VAL");
+        for (QueryView v : aViews)
+        {
+            result.add(describe(v.getQuery()));
+            int[] sizes = new int[v.getQuery().getParamLayout().size()];
+            for (int size = 0; size < 12; size += 3)
+            {
+                Arrays.fill(sizes, size);
+                result.add(describe(v.getQuery(sizes, policy)));
+            }
+            long masks = 1L << Math.min(v.getPredicates().size(), 3);
+            for (long mask = 0; mask < masks; mask++)
+            {
+                result.add(describe(v.getQuery(mask)));
+            }
+            for (Dialect d : Dialect.values())
+            {
+                result.add(describe(v.getPageQuery(d)));
+                try
+                {
+                    result.add(describe(v.getSeekQuery(d)));
+                } catch (IllegalStateException e)
+                {
+                    result.add(e.getMessage());
+                }
+            }
+            if (v.isBatchable())
+            {
+                result.add(describe(v.getBatchQuery(5)));
+            }
+            result.add(v.getSource());
+        }
+        return result;
+    }
+
+    private static String describe(Query aQuery)
+    {
+        StringBuilder out = new StringBuilder(aQuery.getStatement());
+        ParamLayout layout = aQuery.getParamLayout();
+        for (int i = 0; i < layout.size(); i++)
+        {
+            out.append('\n').append(layout.getAttribute(i)).append(' ')
+                    .append(layout.getSqlType(i));
+            for (int p = 0; p < layout.getPositionCount(i); p++)
+            {
+                out.append(' ').append(layout.getPosition(i, p));
+            }
+        }
+        return out.append('\n').append(aQuery.getSelectAttributes())
+                .toString();
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ * Select query builder
+ * Copyright (C) 2014  Milosz Piglas [milosz@archeocs.com]
+ *    
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package pl.mpiglas.jqube.bench;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import pl.mpiglas.jqube.AttributesPair;
+import pl.mpiglas.jqube.Condition;
+import pl.mpiglas.jqube.Condition.Function;
+import pl.mpiglas.jqube.Condition.Operator;
+import pl.mpiglas.jqube.Query;
+import pl.mpiglas.jqube.QueryBuilder;
+import pl.mpiglas.jqube.QueryView;
+import pl.mpiglas.jqube.View;
+import pl.mpiglas.jqube.ViewsRelation;
+
+/**
+ * Measures building queries over nested {@link QueryView}s. View at level k
+ * reads view from level k-1 joined with table Vk.
+ * 
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class NestingBenchmark
+{
+    @Param({ "1", "3", "5" })
+    public int depth;
+
+    private BenchmarkSchema schema;
+    private View outermost;
+
+    @Setup
+    public void setUp()
+    {
+        schema = new BenchmarkSchema(depth + 2, 0);
+        View nested = schema.getView(0);
+        for (int level = 1; level <= depth; level++)
+        {
+            QueryView view = prepareBuilder(nested, level).createView(
+                    "Q" + level);
+            schema.getSchema().addView(
+                    view,
+                    new ViewsRelation(Arrays.asList(new AttributesPair(view
+                            .getAttribute("id"), schema.getView(level + 1)
+                            .getAttribute("parent")))));
+            nested = view;
+        }
+        outermost = nested;
+    }
+
+    private QueryBuilder prepareBuilder(View aNested, int aLevel)
+    {
+        QueryBuilder b = new QueryBuilder(schema.getSchema());
+        b.add(aNested.getAttribute("id").select().withAliasName("id").build());
+        b.add(schema.getView(aLevel).getAttribute("name").select()
+                .withAliasName("name")
+                .withCondition(new Condition(Function.AND, Operator.EQ))
+                .build());
+        return b;
+    }
+
+    @Benchmark
+    public QueryView createView()
+    {
+        return prepareBuilder(outermost, depth + 1).createView("Outer");
+    }
+
+    @Benchmark
+    public Query build()
+    {
+        return prepareBuilder(outermost, depth + 1).build();
+    }
+}
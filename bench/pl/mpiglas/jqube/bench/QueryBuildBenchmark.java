@@ -0,0 +1,95 @@
+/*
+ * Select query builder
+ * Copyright (C) 2014  Milosz Piglas [milosz@archeocs.com]
+ *    
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package pl.mpiglas.jqube.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import pl.mpiglas.jqube.Query;
+import pl.mpiglas.jqube.QueryBuilder;
+
+/**
+ * Measures {@link QueryBuilder#build()} for queries of different size, in
+ * single and multiple threads.
+ * 
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class QueryBuildBenchmark
+{
+    @Param({ "small", "medium", "wide" })
+    public String shape;
+
+    private BenchmarkSchema schema;
+
+    @Setup
+    public void setUp()
+    {
+        schema = new BenchmarkSchema(16, 200);
+    }
+
+    private QueryBuilder prepareBuilder()
+    {
+        switch (shape)
+        {
+        case "small":
+            return schema.small();
+        case "medium":
+            return schema.medium();
+        case "wide":
+            return schema.wide(150);
+        default:
+            throw new IllegalArgumentException("Unknown shape " + shape);
+        }
+    }
+
+    @Benchmark
+    public QueryBuilder prepare()
+    {
+        return prepareBuilder();
+    }
+
+    @Benchmark
+    public Query build()
+    {
+        return prepareBuilder().build();
+    }
+
+    @Benchmark
+    @Threads(4)
+    public Query buildConcurrent()
+    {
+        return prepareBuilder().build();
+    }
+}
@@ -0,0 +1,90 @@
+/*
+ * Select query builder
+ * Copyright (C) 2014  Milosz Piglas [milosz@archeocs.com]
+ *    
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package pl.mpiglas.jqube.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import pl.mpiglas.jqube.Schema;
+import pl.mpiglas.jqube.Tree;
+import pl.mpiglas.jqube.View;
+
+/**
+ * Measures {@link Schema} lookups and building join tree with
+ * {@link Tree#addJoin(View, boolean)} in schemas of different size.
+ * 
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SchemaBenchmark
+{
+    private static final int JOINED_VIEWS = 8;
+
+    @Param({ "10", "1000", "10000" })
+    public int views;
+
+    private BenchmarkSchema schema;
+    private String[] names;
+    private int next;
+
+    @Setup
+    public void setUp()
+    {
+        schema = new BenchmarkSchema(views, 0);
+        names = new String[Math.min(views, 1024)];
+        for (int i = 0; i < names.length; i++)
+        {
+            names[i] = BenchmarkSchema.viewName((int) ((long) i * views
+                    / names.length));
+        }
+    }
+
+    @Benchmark
+    public View getView()
+    {
+        next = (next + 1) % names.length;
+        return schema.getSchema().getView(names[next]);
+    }
+
+    @Benchmark
+    public Tree addJoin()
+    {
+        int first = (views - JOINED_VIEWS) / 2;
+        Tree tree = new Tree(schema.getSchema());
+        for (int i = 0; i < JOINED_VIEWS; i++)
+        {
+            tree.addJoin(schema.getView(first + i), false);
+        }
+        return tree;
+    }
+}
@@ -17,33 +17,70 @@
  */
 package pl.mpiglas.jqube;
 
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
 /**
- * Generates aliases for views.
+ * Generates aliases for views. Each {@link Tree} owns its generator, so the
+ * same query always gets the same aliases: A, B, ..., Z, AA, AB, ...
+ * Reserved words of SQL (e.g. AS, IN, ON) are skipped.
+ * Instances are not thread-safe - generator must be confined to its tree.
  *
  */
-public enum AliasGenerator
+public final class AliasGenerator
 {
-    INSTANCE;
-    
-    private char[] letters = "ABCDEFGHIKLMNOPQRSTUVXYZ".toCharArray();
+    private static final char[] LETTERS = "ABCDEFGHIKLMNOPQRSTUVXYZ".toCharArray();
+    private static final Set<String> RESERVED = new HashSet<String>(
+            Arrays.asList("AS", "AT", "BY", "DO", "GO", "IF", "IN", "IS",
+                    "NO", "OF", "ON", "OR", "TO", "ADD", "ALL", "AND",
+                    "ANY", "ARE", "ASC", "AVG", "BIT", "CUBE", "DAY", "DEC",
+                    "DESC", "DROP", "ELSE", "END", "EXEC", "FOR", "FROM",
+                    "FULL", "GET", "INT", "INTO", "KEY", "LEFT", "LIKE",
+                    "MAX", "MIN", "MOD", "NEXT", "NOT", "NULL", "ONLY",
+                    "OPEN", "OUT", "OVER", "PAD", "REF", "ROW", "ROWS",
+                    "SET", "SOME", "SQL", "SUM", "THEN", "TOP", "TRUE",
+                    "USE", "USER", "VIEW", "YEAR", "ZONE"));
+
     private int start = 1;
-    private int len = letters.length;
-    
+
+    /**
+     * Inits generator starting from the first alias.
+     */
+    public AliasGenerator()
+    {
+    }
+
+    /**
+     * Inits generator continuing sequence of other one.
+     * @param aOther generator
+     */
+    public AliasGenerator(AliasGenerator aOther)
+    {
+        start = aOther.start;
+    }
+
     /**
      * 
      * @return next alias.
      */
     public String next()
     {
-        int tmp = start;
-        StringBuilder base = new StringBuilder();
-        while (tmp > 0)
+        String alias;
+        do
         {
-            int idx = tmp % len;
-            base.insert(0, letters[idx - 1]);
-            tmp = tmp / len;
-        }
-        start++;
-        return base.toString();
+            int tmp = start;
+            int len = LETTERS.length;
+            StringBuilder base = new StringBuilder();
+            while (tmp > 0)
+            {
+                tmp--;
+                base.insert(0, LETTERS[tmp % len]);
+                tmp = tmp / len;
+            }
+            start++;
+            alias = base.toString();
+        } while (RESERVED.contains(alias));
+        return alias;
     }
 }
@@ -47,13 +47,6 @@ public final class AttributesPair
         return second;
     }
 
-    private StringBuilder prepareJoinName(ViewAlias aAlias)
-    {
-        return new StringBuilder().append(aAlias.getAlias()).append(".")
-                .append(attributeFromView(aAlias.getView()).getDbName());
-
-    }
-
     /**
      * Finds and returns in pair attribute from view that is related to given one.
      * @param aOther a view
@@ -100,22 +93,21 @@ public final class AttributesPair
     }
 
     /**
-     * Prepares string representing relation between two views.
-     * @param aAlias alias name of view
-     * @param aAlias2 alias name of view
-     * @return prepared string: aAlias.attribute = aAlias2.attribute
+     * Appends string representing relation between two views. Names of
+     * attributes are resolved by tree, so attributes of inlined views are
+     * replaced with their columns.
+     * @param aOut output builder
+     * @param aTree tree of views used in query
+     * @param aView view
+     * @param aView2 view
+     * @return output builder with appended string: view.attribute = view2.attribute
      */
-    public StringBuilder prepareString(ViewAlias aAlias, ViewAlias aAlias2)
+    public StringBuilder prepareString(StringBuilder aOut, Tree aTree,
+            View aView, View aView2)
     {
-        if (aAlias == null || aAlias2 == null)
-        {
-            throw new IllegalArgumentException("Null alias");
-        }
-        StringBuilder builder = new StringBuilder();
-        builder.append(prepareJoinName(aAlias)).append(" = ")
-                .append(prepareJoinName(aAlias2));
-        return builder;
-
+        aTree.prepareName(aOut, attributeFromView(aView));
+        aOut.append(" = ");
+        return aTree.prepareName(aOut, attributeFromView(aView2));
     }
 
 }
@@ -22,7 +22,9 @@ import java.util.List;
 
 /**
  * Representation of conditions for single attribute used to build WHERE clause.
- * One instance of class might be assigned only to one attribute.
+ * One instance of class might be assigned only to one attribute. Chain is
+ * mutable until it is frozen (see {@link #freeze()}) - frozen chain might be
+ * shared between threads.
  */
 public class Condition
 {
@@ -56,7 +58,7 @@ public class Condition
      */
     public static enum Operator
     {
-        LT("<"), LE("<="), EQ("="), GE(">="), GT(">"), LIKE("LIKE");
+        LT("<"), LE("<="), EQ("="), GE(">="), GT(">"), LIKE("LIKE"), IN("IN");
 
         String symbol;
 
@@ -71,10 +73,10 @@ public class Condition
         }
     }
 
-    private Function function;
-    private Operator operator;
+    private final Function function;
+    private final Operator operator;
+    private final boolean frozen;
     private Condition next = null;
-    private int index;
 
     /**
      * Creates single condition.
@@ -85,9 +87,61 @@ public class Condition
      *            comparision operator (<, >, LIKE, ...)
      */
     public Condition(Function aLogicalFunction, Operator aOperator)
+    {
+        this(aLogicalFunction, aOperator, false);
+    }
+
+    private Condition(Function aLogicalFunction, Operator aOperator,
+            boolean aFrozen)
     {
         function = aLogicalFunction;
         operator = aOperator;
+        frozen = aFrozen;
+    }
+
+    /**
+     * Creates immutable copy of chain starting from this condition.
+     * 
+     * @return frozen chain, this one if chain is already frozen.
+     */
+    public Condition freeze()
+    {
+        if (frozen)
+        {
+            return this;
+        }
+        Condition first = new Condition(function, operator, true);
+        Condition last = first;
+        for (Condition c = next; c != null; c = c.next)
+        {
+            last.next = new Condition(c.function, c.operator, true);
+            last = last.next;
+        }
+        return first;
+    }
+
+    /**
+     * @return true if chain might not be modified.
+     */
+    public boolean isFrozen()
+    {
+        return frozen;
+    }
+
+    /**
+     * @return logical function joining this condition with previous one.
+     */
+    public Function getFunction()
+    {
+        return function;
+    }
+
+    /**
+     * @return comparision SQL operator.
+     */
+    public Operator getOperator()
+    {
+        return operator;
     }
 
     /**
@@ -101,9 +155,15 @@ public class Condition
     /**
      * @param next
      *            next condition to chain
+     * @throws IllegalStateException
+     *             if chain is frozen.
      */
     public void setNext(Condition next)
     {
+        if (frozen)
+        {
+            throw new IllegalStateException("Condition is frozen");
+        }
         this.next = next;
     }
 
@@ -123,7 +183,7 @@ public class Condition
             throw new IllegalArgumentException(
                     "Next condition in chain is already defined - use setNext instead");
         }
-        next = new Condition(aLogicalFunction, aOperator);
+        setNext(new Condition(aLogicalFunction, aOperator));
         return next;
     }
 
@@ -164,46 +224,90 @@ public class Condition
     }
 
     /**
-     * Prepares string builder representing chain of conditions for single
-     * attribute. For example 'name = ? AND name LIKE ? OR name > ?'.
+     * Appends chain of conditions for single attribute. For example 'name = ?
+     * AND name LIKE ? OR name > ?', or 'COUNT(name) > ?' for aggregated
+     * attribute. Each condition in chain has its own slot
+     * of parameters, slots of chain are consecutive.
      * 
-     * @param aAttributeName
-     *            name of attribute, that condition is assigned to.
-     * @param aIndex
-     *            index of specific single condition.
-     * @return chain of conditions for specified attribute's name.
+     * @param aOut
+     *            output builder
+     * @param aTree
+     *            tree of views used in query.
+     * @param aAttribute
+     *            attribute, that condition is assigned to.
+     * @param aParams
+     *            builder of parameters.
+     * @param aSlot
+     *            slot of the first condition in chain.
+     * @param aFirst
+     *            true if chain is the first one in clause - logical function
+     *            of its first condition is omitted.
+     * @return output builder
      */
-    public StringBuilder prepareString(String aAttributeName, int aIndex)
+    public StringBuilder prepareString(StringBuilder aOut, Tree aTree,
+            SelectAttribute aAttribute, ParamsBuilder aParams, int aSlot,
+            boolean aFirst)
     {
-        StringBuilder builder = new StringBuilder();
-        if (aIndex > 0)
-        {
-            builder.append(" ").append(function.toString()).append(" ");
-        }
-        builder.append(" ").append(aAttributeName).append(" ")
-                .append(operator.toString()).append(" ?");
-        index = aIndex;
-        int idx = aIndex + 1;
-        if (next != null)
+        return prepareString(aOut, aTree, aAttribute, aParams, aSlot,
+                aFirst ? null : function);
+    }
+
+    /**
+     * Appends chain of conditions for single attribute, joined with previous
+     * conditions by given logical function instead of function of the first
+     * condition in chain.
+     * 
+     * @param aOut
+     *            output builder
+     * @param aTree
+     *            tree of views used in query.
+     * @param aAttribute
+     *            attribute, that condition is assigned to.
+     * @param aParams
+     *            builder of parameters.
+     * @param aSlot
+     *            slot of the first condition in chain.
+     * @param aFunction
+     *            logical function joining chain with previous conditions, null
+     *            if chain is the first one in clause.
+     * @return output builder
+     */
+    public StringBuilder prepareString(StringBuilder aOut, Tree aTree,
+            SelectAttribute aAttribute, ParamsBuilder aParams, int aSlot,
+            Function aFunction)
+    {
+        int slot = aSlot;
+        for (Condition c = this; c != null; c = c.next)
         {
-            builder.append(" ").append(next.prepareString(aAttributeName, idx));
+            if (c != this)
+            {
+                aOut.append(' ');
+            }
+            Function link = c != this ? c.function : aFunction;
+            if (link != null)
+            {
+                aOut.append(' ').append(link.toString()).append(' ');
+            }
+            aOut.append(' ');
+            aAttribute.prepareExpression(aOut, aTree).append(' ')
+                    .append(c.operator.toString()).append(' ');
+            aParams.prepareString(aOut, slot);
+            slot++;
         }
-        return builder;
+        return aOut;
     }
 
     /**
-     * Calculates index of last condition in chain. To achieve proper behaviour
-     * this method must be called after prepereString method.
-     * 
-     * @return index of last condition in this chain.
+     * @return number of conditions in chain.
      */
-    public int getIndex()
+    public int getLength()
     {
-        if (next != null)
+        int length = 0;
+        for (Condition c = this; c != null; c = c.next)
         {
-            return next.getIndex();
+            length++;
         }
-        return index;
+        return length;
     }
 
     /**
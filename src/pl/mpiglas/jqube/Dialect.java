@@ -0,0 +1,113 @@
+/*
+ * Select query builder
+ * Copyright (C) 2014  Milosz Piglas [milosz@archeocs.com]
+ *    
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package pl.mpiglas.jqube;
+
+/**
+ * SQL dialects supported by paged queries. Dialect decides how number of rows
+ * is limited, whether row values might be compared and whether repeated
+ * nested views might be moved to WITH clause.
+ * 
+ */
+public enum Dialect
+{
+    /**
+     * SQL:2008 'OFFSET ? ROWS FETCH NEXT ? ROWS ONLY' (Oracle 12c, SQL Server
+     * 2012, DB2, Derby). Row values are not compared, seek predicate is
+     * expanded.
+     */
+    STANDARD(false, true),
+
+    /**
+     * 'LIMIT ? OFFSET ?' with row values comparison (PostgreSQL, MySQL 8, H2,
+     * HSQLDB, SQLite).
+     */
+    LIMIT_OFFSET(true, true),
+
+    /**
+     * 'LIMIT ? OFFSET ?' with row values comparison, without WITH clause
+     * (MySQL 5.7, MariaDB 10.1).
+     */
+    LIMIT_OFFSET_NO_WITH(true, false);
+
+    private final boolean rowValues;
+    private final boolean commonTables;
+
+    Dialect(boolean aRowValues, boolean aCommonTables)
+    {
+        rowValues = aRowValues;
+        commonTables = aCommonTables;
+    }
+
+    /**
+     * @return true if 'WITH name AS (...)' is supported.
+     */
+    public boolean hasCommonTables()
+    {
+        return commonTables;
+    }
+
+    /**
+     * @return true if '(a, b) > (?, ?)' is supported.
+     */
+    public boolean hasRowValues()
+    {
+        return rowValues;
+    }
+
+    /**
+     * Appends clause limiting number of rows.
+     * 
+     * @param aOut
+     *            output builder
+     * @param aParams
+     *            builder of parameters
+     * @param aOffsetSlot
+     *            slot of number of skipped rows, or -1 if rows are not
+     *            skipped (STANDARD writes OFFSET 0 ROWS then).
+     * @param aLimitSlot
+     *            slot of maximal number of rows.
+     * @return output builder
+     */
+    public StringBuilder prepareLimit(StringBuilder aOut,
+            ParamsBuilder aParams, int aOffsetSlot, int aLimitSlot)
+    {
+        if (!rowValues)
+        {
+            // SQL Server accepts FETCH only after OFFSET
+            aOut.append("\n OFFSET ");
+            if (aOffsetSlot >= 0)
+            {
+                aParams.prepareString(aOut, aOffsetSlot);
+            } else
+            {
+                aOut.append('0');
+            }
+            aOut.append(" ROWS FETCH NEXT ");
+            return aParams.prepareString(aOut, aLimitSlot).append(
+                    " ROWS ONLY");
+        }
+        aOut.append("\n LIMIT ");
+        aParams.prepareString(aOut, aLimitSlot);
+        if (aOffsetSlot >= 0)
+        {
+            aOut.append(" OFFSET ");
+            aParams.prepareString(aOut, aOffsetSlot);
+        }
+        return aOut;
+    }
+}
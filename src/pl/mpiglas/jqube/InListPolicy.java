@@ -0,0 +1,120 @@
+/*
+ * Select query builder
+ * Copyright (C) 2014  Milosz Piglas [milosz@archeocs.com]
+ *    
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package pl.mpiglas.jqube;
+
+/**
+ * Defines how lists of values of IN conditions are rendered. Lists not longer
+ * than threshold are padded to bucket size - the smallest power of two not
+ * less than list's size - so only few distinct statements exist. Longer
+ * lists are read from table: LIST_ID IN (SELECT valueColumn FROM table WHERE
+ * idColumn = slot). Such table must exist in database and is filled by
+ * executor before query is run.
+ * <p>
+ * Number of list is the slot of its condition, so lists of different queries
+ * share the same rows of table. Executor replaces only rows of lists it
+ * fills, therefore:
+ * <ul>
+ * <li>table must be private to connection (e.g. temporary table) - other
+ * sessions would replace rows of running queries,</li>
+ * <li>result of query, which reads long list, must be read (or closed) before
+ * other query with long list in the same slot is executed on the connection,
+ * since its rows are replaced - e.g. streaming {@link
+ * pl.mpiglas.jqube.jdbc.RowReader} might see values of the later query.
+ * Results of queries using other slots are not affected.</li>
+ * </ul>
+ * 
+ */
+public final class InListPolicy
+{
+    /**
+     * Policy with threshold 1024 and table JQUBE_IN_LIST(LIST_ID, VAL).
+     */
+    public static final InListPolicy DEFAULT = new InListPolicy(1024,
+            "JQUBE_IN_LIST", "LIST_ID", "VAL");
+
+    private final int threshold;
+    private final String table;
+    private final String idColumn;
+    private final String valueColumn;
+
+    /**
+     * Inits policy.
+     * 
+     * @param aThreshold
+     *            maximal size of list rendered as parameters.
+     * @param aTable
+     *            name of table with values of long lists.
+     * @param aIdColumn
+     *            column of table with number of list.
+     * @param aValueColumn
+     *            column of table with values.
+     */
+    public InListPolicy(int aThreshold, String aTable, String aIdColumn,
+            String aValueColumn)
+    {
+        if (aThreshold < 1)
+        {
+            throw new IllegalArgumentException("Threshold must be positive");
+        }
+        threshold = aThreshold;
+        table = aTable;
+        idColumn = aIdColumn;
+        valueColumn = aValueColumn;
+    }
+
+    /**
+     * Calculates number of parameters used to render list.
+     * 
+     * @param aSize
+     *            size of list
+     * @return number of parameters, or 0 if list is read from table.
+     */
+    public int bucket(int aSize)
+    {
+        if (aSize > threshold)
+        {
+            return 0;
+        }
+        int bucket = 1;
+        while (bucket < aSize)
+        {
+            bucket <<= 1;
+        }
+        return Math.min(bucket, threshold);
+    }
+
+    public final int getThreshold()
+    {
+        return threshold;
+    }
+
+    public final String getTable()
+    {
+        return table;
+    }
+
+    public final String getIdColumn()
+    {
+        return idColumn;
+    }
+
+    public final String getValueColumn()
+    {
+        return valueColumn;
+    }
+}
@@ -0,0 +1,226 @@
+/*
+ * Select query builder
+ * Copyright (C) 2014  Milosz Piglas [milosz@archeocs.com]
+ *    
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package pl.mpiglas.jqube;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Writes sources of nested query views in single statement. View might be
+ * written with conditions moved into it (see {@link PushedConditions}), or
+ * by name - views, whose source would be written more than once, are
+ * defined once in WITH clause. Names are chosen from joins of trees, not
+ * from rendered text, so only whole views are shared.
+ * 
+ */
+class NestedSources
+{
+    private final PushedConditions pushed;
+    private final Map<QueryView, String> names;
+    private final NestedSources nested;
+
+    private NestedSources(PushedConditions aPushed,
+            Map<QueryView, String> aNames)
+    {
+        pushed = aPushed;
+        names = aNames;
+        nested = aPushed != null ? new NestedSources(null, aNames) : this;
+    }
+
+    /**
+     * Chooses views written in WITH clause. View is shared, if it is joined
+     * more than once in tree and in sources of nested views written in
+     * statement - source of shared view counts once, views with moved
+     * conditions are not shared. Views are named 'cte1', 'cte2'...
+     * skipping names, which are used by aliases or contained in sources of
+     * other views, so they never shadow tables.
+     * 
+     * @param aTree
+     *            tree of statement
+     * @param aPushed
+     *            conditions moved into nested views, possibly null.
+     * @param aDialect
+     *            dialect of statement, or null if it is not known - WITH
+     *            clause is written only if dialect supports it.
+     * @return sources of statement, or null if all views are written as
+     *         their sources.
+     */
+    static NestedSources prepare(Tree aTree, PushedConditions aPushed,
+            Dialect aDialect)
+    {
+        Map<QueryView, String> names = new LinkedHashMap<>();
+        if (aDialect != null && aDialect.hasCommonTables())
+        {
+            Set<String> used = new HashSet<>();
+            List<QueryView> joined = new ArrayList<>();
+            aTree.collectNestedViews(joined, used);
+            Map<QueryView, List<QueryView>> children = new HashMap<>();
+            List<QueryView> order = new ArrayList<>();
+            for (QueryView v : joined)
+            {
+                collect(v, children, order, used);
+            }
+            Map<QueryView, Integer> written = new HashMap<>();
+            Map<QueryView, Integer> bodies = new HashMap<>();
+            for (QueryView v : joined)
+            {
+                add(aPushed != null && aPushed.contains(v) ? bodies
+                        : written, v, 1);
+            }
+            // containers precede nested views in reversed post-order
+            List<QueryView> shared = new ArrayList<>();
+            for (int i = order.size() - 1; i >= 0; i--)
+            {
+                QueryView v = order.get(i);
+                int count = get(written, v);
+                if (count > 1)
+                {
+                    shared.add(v);
+                }
+                int sources = (count > 1 ? 1 : count) + get(bodies, v);
+                for (QueryView ch : children.get(v))
+                {
+                    add(written, ch, sources);
+                }
+            }
+            int n = 1;
+            for (int i = shared.size() - 1; i >= 0; i--)
+            {
+                while (isUsed("cte" + n, used))
+                {
+                    n++;
+                }
+                names.put(shared.get(i), "cte" + n);
+                n++;
+            }
+        }
+        return aPushed == null && names.isEmpty() ? null : new NestedSources(
+                aPushed, names);
+    }
+
+    private static void collect(QueryView aView,
+            Map<QueryView, List<QueryView>> aChildren, List<QueryView> aOrder,
+            Set<String> aUsed)
+    {
+        if (aChildren.containsKey(aView))
+        {
+            return;
+        }
+        List<QueryView> children = new ArrayList<>();
+        aChildren.put(aView, children);
+        aView.getTree().collectNestedViews(children, aUsed);
+        for (QueryView ch : children)
+        {
+            collect(ch, aChildren, aOrder, aUsed);
+        }
+        aOrder.add(aView);
+    }
+
+    private static int get(Map<QueryView, Integer> aCounts, QueryView aView)
+    {
+        Integer count = aCounts.get(aView);
+        return count != null ? count : 0;
+    }
+
+    private static void add(Map<QueryView, Integer> aCounts, QueryView aView,
+            int aCount)
+    {
+        aCounts.put(aView, get(aCounts, aView) + aCount);
+    }
+
+    private static boolean isUsed(String aName, Set<String> aUsed)
+    {
+        for (String u : aUsed)
+        {
+            if (u.contains(aName))
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return true if condition of attribute is moved into nested query.
+     */
+    boolean contains(SelectAttribute aAttribute)
+    {
+        return pushed != null && pushed.contains(aAttribute);
+    }
+
+    /**
+     * @return sources used inside nested views and semi-joins - conditions
+     *         are moved only into views joined in statement's FROM clause.
+     */
+    NestedSources getNested()
+    {
+        return nested;
+    }
+
+    /**
+     * Appends source of view joined in statement.
+     * 
+     * @param aOut
+     *            output builder
+     * @param aView
+     *            view joined in statement.
+     * @return output builder
+     */
+    StringBuilder prepareSource(StringBuilder aOut, View aView)
+    {
+        if (pushed != null && pushed.contains(aView))
+        {
+            return pushed.prepareSource(aOut, aView, nested);
+        }
+        String name = names.get(aView);
+        if (name != null)
+        {
+            return aOut.append(name);
+        }
+        if (aView instanceof QueryView && !names.isEmpty())
+        {
+            return ((QueryView) aView).prepareSource(aOut, nested);
+        }
+        return aOut.append(aView.getSource());
+    }
+
+    /**
+     * Appends WITH clause defining shared views, nested ones first.
+     * 
+     * @param aOut
+     *            output builder
+     * @return output builder
+     */
+    StringBuilder prepareWith(StringBuilder aOut)
+    {
+        boolean first = true;
+        for (Map.Entry<QueryView, String> e : names.entrySet())
+        {
+            aOut.append(first ? "WITH " : ",\n").append(e.getValue())
+                    .append(" AS ");
+            e.getKey().prepareSource(aOut, nested);
+            first = false;
+        }
+        return aOut.append(first ? "" : "\n");
+    }
+}
@@ -18,6 +18,8 @@
 package pl.mpiglas.jqube;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.List;
 
 /**
@@ -26,10 +28,14 @@ import java.util.List;
  */
 public class Node
 {
+    private static final String JOIN = "JOIN";
+    private static final String OUTER_JOIN = "LEFT OUTER JOIN";
+
     private ViewAlias alias;
     private ViewsRelation relation;
     private String joinString;
     private List<Node> children;
+    private Tree inline;
 
     /**
      * Inits new node of tree representing single view and its relation to other
@@ -60,7 +66,7 @@ public class Node
      */
     public Node(ViewAlias aViewAlias)
     {
-        this(aViewAlias, null, "JOIN");
+        this(aViewAlias, null, JOIN);
     }
 
     public String getJoinString()
@@ -68,6 +74,14 @@ public class Node
         return joinString;
     }
 
+    /**
+     * @return true if view of this node is joined with 'LEFT OUTER JOIN'.
+     */
+    public boolean isOuterJoin()
+    {
+        return OUTER_JOIN.equals(joinString);
+    }
+
     /**
      * Creates new node and adds it to this node as related.
      * 
@@ -82,40 +96,217 @@ public class Node
     public Node addJoin(ViewAlias aViewAlias, ViewsRelation aRelation,
             boolean aOuterJoin)
     {
-        String joinStr = aOuterJoin ? "LEFT OUTER JOIN" : "JOIN";
+        String joinStr = aOuterJoin ? OUTER_JOIN : JOIN;
         Node nn = new Node(aViewAlias, aRelation, joinStr);
         children.add(nn);
         return nn;
     }
 
     /**
-     * Builds part of FROM clause for this node and all its children.
+     * Adds node as joined to this one.
+     * 
+     * @param aNode
+     *            node without parent.
+     */
+    void addJoin(Node aNode)
+    {
+        children.add(aNode);
+    }
+
+    /**
+     * Sorts nodes joined to this one.
+     * 
+     * @param aOrder
+     *            order of joins.
+     */
+    void sortJoins(Comparator<Node> aOrder)
+    {
+        Collections.sort(children, aOrder);
+    }
+
+    /**
+     * @param aRelation
+     *            relation of view to new parent (possibly null).
+     * @param aOuterJoin
+     *            true if view is outer joined to new parent.
+     * @return node of the same view, without joined nodes.
+     */
+    Node copyAs(ViewsRelation aRelation, boolean aOuterJoin)
+    {
+        Node nn = new Node(alias, aRelation, aOuterJoin ? OUTER_JOIN : JOIN);
+        nn.inline = inline;
+        return nn;
+    }
+
+    /**
+     * Removes node joined to this one.
+     * 
+     * @param aNode
+     *            child node.
+     */
+    public void removeJoin(Node aNode)
+    {
+        children.remove(aNode);
+    }
+
+    /**
+     * Appends part of FROM clause for this node and all its children. If view
+     * of node is inlined, its root view is written in place of view and its
+     * joins follow.
      * 
-     * @param aParentAlias
-     *            alias of parent view. Null if this node is not connected with
-     *            other node (root).
-     * @return prepared string builder.
+     * @param aOut
+     *            output builder
+     * @param aTree
+     *            tree of this node, used to resolve names in relations.
+     * @param aParent
+     *            parent view. Null if this node is not connected with other
+     *            node (root).
+     * @param aSources
+     *            sources of nested query views, possibly null.
+     * @return output builder.
      */
-    public StringBuilder prepareString(ViewAlias aParentAlias)
+    StringBuilder prepareString(StringBuilder aOut, Tree aTree,
+            View aParent, NestedSources aSources)
     {
-        StringBuilder builder = new StringBuilder();
-        builder.append(alias.getView().getSource()).append(" ")
-                .append(alias.getAlias());
+        prepareHead(aOut, aSources);
         if (relation != null)
         {
-            builder.append(" ON ").append(
-                    relation.prepareString(aParentAlias, alias));
+            aOut.append(" ON ");
+            relation.prepareString(aOut, aTree, aParent, alias.getView());
         }
-        for (Node ch : children)
+        return prepareJoins(aOut, aTree, aSources);
+    }
+
+    /**
+     * Appends part of FROM clause for this node and all its children, without
+     * relation to parent - node is the first view of clause.
+     * 
+     * @param aOut
+     *            output builder
+     * @param aTree
+     *            tree of this node, used to resolve names in relations.
+     * @param aSources
+     *            sources of nested query views, possibly null.
+     * @return output builder.
+     */
+    StringBuilder prepareFrom(StringBuilder aOut, Tree aTree,
+            NestedSources aSources)
+    {
+        prepareHead(aOut, aSources);
+        return prepareJoins(aOut, aTree, aSources);
+    }
+
+    private void prepareHead(StringBuilder aOut, NestedSources aSources)
+    {
+        if (inline != null)
+        {
+            inline.getRoot().prepareHead(aOut,
+                    aSources != null ? aSources.getNested() : null);
+        } else
+        {
+            if (aSources != null)
+            {
+                aSources.prepareSource(aOut, alias.getView());
+            } else
+            {
+                aOut.append(alias.getView().getSource());
+            }
+            aOut.append(' ').append(alias.getAlias());
+        }
+    }
+
+    private StringBuilder prepareJoins(StringBuilder aOut, Tree aTree,
+            NestedSources aSources)
+    {
+        if (inline != null)
+        {
+            inline.getRoot().prepareJoins(aOut, inline,
+                    aSources != null ? aSources.getNested() : null);
+        }
+        for (int i = 0; i < children.size(); i++)
         {
-            builder.append("\n").append(ch.getJoinString()).append(" ")
-                    .append(ch.prepareString(alias));
+            Node ch = children.get(i);
+            aOut.append('\n').append(ch.getJoinString()).append(' ');
+            ch.prepareString(aOut, aTree, alias.getView(), aSources);
         }
-        return builder;
+        return aOut;
+    }
+
+    /**
+     * @return node, whose view is written in place of this one - root of
+     *         inlined tree (recursively), or this node.
+     */
+    Node getHead()
+    {
+        return inline != null ? inline.getRoot().getHead() : this;
+    }
+
+    /**
+     * @return tree of inlined view, or null if view is not inlined.
+     */
+    Tree getInline()
+    {
+        return inline;
+    }
+
+    /**
+     * Replaces view of this node with its tree.
+     * 
+     * @param aInline
+     *            tree of view with own aliases.
+     */
+    void setInline(Tree aInline)
+    {
+        inline = aInline;
     }
 
     public ViewAlias getViewAlias()
     {
         return alias;
     }
+
+    public ViewsRelation getRelation()
+    {
+        return relation;
+    }
+
+    /**
+     * @return nodes joined to this one.
+     */
+    public List<Node> getChildren()
+    {
+        return Collections.unmodifiableList(children);
+    }
+
+    /**
+     * @return deep copy of this node and all its children.
+     */
+    public Node copy()
+    {
+        Node nn = new Node(alias, relation, joinString);
+        nn.inline = inline;
+        for (Node ch : children)
+        {
+            nn.children.add(ch.copy());
+        }
+        return nn;
+    }
+
+    /**
+     * @param aAliases
+     *            generator of new aliases
+     * @return deep copy of this node and all its children (also inlined),
+     *         with new aliases.
+     */
+    public Node copy(AliasGenerator aAliases)
+    {
+        Node nn = new Node(inline != null ? alias : new ViewAlias(
+                alias.getView(), aAliases.next()), relation, joinString);
+        nn.inline = inline != null ? inline.copy(aAliases) : null;
+        for (Node ch : children)
+        {
+            nn.children.add(ch.copy(aAliases));
+        }
+        return nn;
+    }
 }
@@ -0,0 +1,239 @@
+/*
+ * Select query builder
+ * Copyright (C) 2014  Milosz Piglas [milosz@archeocs.com]
+ *    
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package pl.mpiglas.jqube;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Compiled layout of query's parameters. Each value bound to statement is a
+ * slot, usually written once as single '?'. In queries built by
+ * {@link QueryView#getQuery()} slots of single attribute are consecutive. For
+ * every slot layout keeps positions of parameter in statement (as used by
+ * JDBC), its sql type and attribute. Instances are immutable and might be shared between threads.
+ * 
+ */
+public final class ParamLayout
+{
+    /**
+     * Layout of query without parameters.
+     */
+    public static final ParamLayout EMPTY = new ParamLayout(
+            new ViewAttribute[0], new int[0], new int[0]);
+
+    private final ViewAttribute[] attributes;
+    private final int[][] positions;
+    private final int[] sqlTypes;
+    private final boolean[] lists;
+    private final Map<ViewAttribute, Integer> firstSlots;
+
+    /**
+     * Inits layout. Arrays are indexed by slot number.
+     * 
+     * @param aAttributes
+     *            attribute of each slot.
+     * @param aPositions
+     *            position of each slot in statement (starting from 1).
+     * @param aSqlTypes
+     *            sql datatype of each slot.
+     */
+    public ParamLayout(ViewAttribute[] aAttributes, int[] aPositions,
+            int[] aSqlTypes)
+    {
+        this(aAttributes, aPositions, aSqlTypes,
+                new boolean[aAttributes.length]);
+    }
+
+    /**
+     * Inits layout. Arrays are indexed by slot number.
+     * 
+     * @param aAttributes
+     *            attribute of each slot.
+     * @param aPositions
+     *            position of each slot in statement (starting from 1).
+     * @param aSqlTypes
+     *            sql datatype of each slot.
+     * @param aLists
+     *            true for slots of IN conditions.
+     */
+    public ParamLayout(ViewAttribute[] aAttributes, int[] aPositions,
+            int[] aSqlTypes, boolean[] aLists)
+    {
+        this(aAttributes, wrap(aPositions), aSqlTypes, aLists);
+    }
+
+    /**
+     * Inits layout of statement, which uses some parameters many times.
+     * Arrays are indexed by slot number.
+     * 
+     * @param aAttributes
+     *            attribute of each slot.
+     * @param aPositions
+     *            positions of each slot in statement (starting from 1), at
+     *            least one for each slot.
+     * @param aSqlTypes
+     *            sql datatype of each slot.
+     * @param aLists
+     *            true for slots of IN conditions.
+     */
+    public ParamLayout(ViewAttribute[] aAttributes, int[][] aPositions,
+            int[] aSqlTypes, boolean[] aLists)
+    {
+        if (aAttributes.length != aPositions.length
+                || aAttributes.length != aSqlTypes.length
+                || aAttributes.length != aLists.length)
+        {
+            throw new IllegalArgumentException("Arrays of different length");
+        }
+        attributes = aAttributes.clone();
+        positions = new int[aPositions.length][];
+        for (int i = 0; i < positions.length; i++)
+        {
+            if (aPositions[i].length == 0)
+            {
+                throw new IllegalArgumentException("Slot " + i
+                        + " without position");
+            }
+            positions[i] = aPositions[i].clone();
+        }
+        sqlTypes = aSqlTypes.clone();
+        lists = aLists.clone();
+        Map<ViewAttribute, Integer> first = new HashMap<>();
+        for (int i = attributes.length - 1; i >= 0; i--)
+        {
+            first.put(attributes[i], i);
+        }
+        firstSlots = Collections.unmodifiableMap(first);
+    }
+
+    private static int[][] wrap(int[] aPositions)
+    {
+        int[][] wrapped = new int[aPositions.length][];
+        for (int i = 0; i < aPositions.length; i++)
+        {
+            wrapped[i] = new int[] { aPositions[i] };
+        }
+        return wrapped;
+    }
+
+    /**
+     * @return number of slots.
+     */
+    public int size()
+    {
+        return attributes.length;
+    }
+
+    /**
+     * @param aSlot
+     *            slot number
+     * @return the first position of parameter in statement, starting from 1.
+     */
+    public int getPosition(int aSlot)
+    {
+        return positions[aSlot][0];
+    }
+
+    /**
+     * @param aSlot
+     *            slot number
+     * @return number of positions, where parameter is used in statement.
+     */
+    public int getPositionCount(int aSlot)
+    {
+        return positions[aSlot].length;
+    }
+
+    /**
+     * @param aSlot
+     *            slot number
+     * @param aIndex
+     *            index of position, from 0 to
+     *            {@link #getPositionCount(int)} - 1.
+     * @return position of parameter in statement, starting from 1.
+     */
+    public int getPosition(int aSlot, int aIndex)
+    {
+        return positions[aSlot][aIndex];
+    }
+
+    /**
+     * @param aSlot
+     *            slot number
+     * @return sql datatype of parameter, one of values from
+     *         {@link java.sql.Types}.
+     */
+    public int getSqlType(int aSlot)
+    {
+        return sqlTypes[aSlot];
+    }
+
+    /**
+     * @param aSlot
+     *            slot number
+     * @return true if slot is a list of values of IN condition.
+     */
+    public boolean isList(int aSlot)
+    {
+        return lists[aSlot];
+    }
+
+    /**
+     * @param aSlot
+     *            slot number
+     * @return attribute, that parameter is assigned to.
+     */
+    public ViewAttribute getAttribute(int aSlot)
+    {
+        return attributes[aSlot];
+    }
+
+    /**
+     * @param aAttribute
+     *            attribute of query
+     * @return number of the first slot of given attribute, or -1 if attribute
+     *         does not have parameters.
+     */
+    public int getFirstSlot(ViewAttribute aAttribute)
+    {
+        Integer slot = firstSlots.get(aAttribute);
+        return slot != null ? slot : -1;
+    }
+
+    /**
+     * @param aAttribute
+     *            attribute of query
+     * @return number of consecutive slots of given attribute.
+     */
+    public int getSlotCount(ViewAttribute aAttribute)
+    {
+        int first = getFirstSlot(aAttribute);
+        if (first < 0)
+        {
+            return 0;
+        }
+        int last = first;
+        while (last < attributes.length
+                && attributes[first].equals(attributes[last]))
+        {
+            last++;
+        }
+        return last - first;
+    }
+}
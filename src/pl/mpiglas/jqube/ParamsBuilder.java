@@ -0,0 +1,153 @@
+/*
+ * Select query builder
+ * Copyright (C) 2014  Milosz Piglas [milosz@archeocs.com]
+ *    
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package pl.mpiglas.jqube;
+
+import java.util.Arrays;
+
+/**
+ * Renders parameters of statement and collects their positions. Slots are
+ * defined by query before rendering, builder assigns positions in order of
+ * rendering, so layout is correct whatever is the order of clauses. Single
+ * value slot might be rendered many times - its value is bound at each
+ * position.
+ * 
+ */
+public class ParamsBuilder
+{
+    private final ViewAttribute[] attributes;
+    private final int[] sqlTypes;
+    private final boolean[] lists;
+    private final int[] widths;
+    private final InListPolicy policy;
+    private final int[][] positions;
+    private int next = 1;
+    private int size = 0;
+
+    /**
+     * Inits builder.
+     * 
+     * @param aAttributes
+     *            attribute of each slot.
+     * @param aSqlTypes
+     *            sql datatype of each slot.
+     * @param aLists
+     *            true for slots of IN conditions.
+     * @param aWidths
+     *            number of parameters of each list slot, 0 if list is read
+     *            from table of policy. If null, each list is rendered as
+     *            single parameter.
+     * @param aPolicy
+     *            policy of IN lists (possibly null if widths are null).
+     */
+    public ParamsBuilder(ViewAttribute[] aAttributes, int[] aSqlTypes,
+            boolean[] aLists, int[] aWidths, InListPolicy aPolicy)
+    {
+        attributes = aAttributes;
+        sqlTypes = aSqlTypes;
+        lists = aLists;
+        widths = aWidths;
+        policy = aPolicy;
+        positions = new int[aAttributes.length][];
+    }
+
+    /**
+     * Appends parameters of slot: '?' for single value, '(?, ?, ...)' or
+     * subquery reading values from table for list.
+     * 
+     * @param aOut
+     *            output builder
+     * @param aSlot
+     *            slot number
+     * @return output builder
+     */
+    public StringBuilder prepareString(StringBuilder aOut, int aSlot)
+    {
+        if (!lists[aSlot])
+        {
+            int[] current = positions[aSlot];
+            if (current == null)
+            {
+                positions[aSlot] = new int[] { next++ };
+                size++;
+            } else
+            {
+                positions[aSlot] = Arrays.copyOf(current, current.length + 1);
+                positions[aSlot][current.length] = next++;
+            }
+            return aOut.append('?');
+        }
+        int width = widths != null ? widths[aSlot] : 1;
+        if (width == 0)
+        {
+            positions[aSlot] = new int[0];
+            return aOut.append("(SELECT ").append(policy.getValueColumn())
+                    .append(" FROM ").append(policy.getTable())
+                    .append(" WHERE ").append(policy.getIdColumn())
+                    .append(" = ").append(aSlot).append(')');
+        }
+        positions[aSlot] = new int[width];
+        aOut.append('(');
+        for (int i = 0; i < width; i++)
+        {
+            aOut.append(i == 0 ? "?" : ", ?");
+            positions[aSlot][i] = next++;
+        }
+        size += width;
+        return aOut.append(')');
+    }
+
+    /**
+     * Prepares layout of rendered parameters. Parameters are ordered by slot,
+     * list slots are expanded to all their parameters.
+     * 
+     * @return layout of parameters.
+     */
+    public ParamLayout build()
+    {
+        ViewAttribute[] slotAttributes = new ViewAttribute[size];
+        int[][] slotPositions = new int[size][];
+        int[] slotTypes = new int[size];
+        boolean[] slotLists = new boolean[size];
+        int slot = 0;
+        for (int s = 0; s < positions.length; s++)
+        {
+            if (positions[s] == null)
+            {
+                continue;
+            }
+            if (!lists[s])
+            {
+                slotAttributes[slot] = attributes[s];
+                slotPositions[slot] = positions[s];
+                slotTypes[slot] = sqlTypes[s];
+                slot++;
+                continue;
+            }
+            for (int p : positions[s])
+            {
+                slotAttributes[slot] = attributes[s];
+                slotPositions[slot] = new int[] { p };
+                slotTypes[slot] = sqlTypes[s];
+                slotLists[slot] = lists[s];
+                slot++;
+            }
+        }
+        return new ParamLayout(slotAttributes, slotPositions, slotTypes,
+                slotLists);
+    }
+}
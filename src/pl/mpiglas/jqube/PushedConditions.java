@@ -0,0 +1,103 @@
+/*
+ * Select query builder
+ * Copyright (C) 2014  Milosz Piglas [milosz@archeocs.com]
+ *    
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package pl.mpiglas.jqube;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Conditions of query moved into WHERE clause of nested query views, which are
+ * joined as derived tables. Parameters of moved conditions keep slots of
+ * query, positions are assigned while FROM clause is rendered.
+ * 
+ */
+class PushedConditions
+{
+    private final ParamsBuilder params;
+    private final Map<View, List<SelectAttribute>> attributes = new HashMap<>();
+    private final Map<View, List<Integer>> slots = new HashMap<>();
+
+    /**
+     * @param aParams
+     *            builder of parameters of query.
+     */
+    PushedConditions(ParamsBuilder aParams)
+    {
+        params = aParams;
+    }
+
+    /**
+     * @param aAttribute
+     *            attribute of nested query view with condition.
+     * @param aSlot
+     *            slot of the first condition in chain.
+     */
+    void add(SelectAttribute aAttribute, int aSlot)
+    {
+        View view = aAttribute.getView();
+        if (!attributes.containsKey(view))
+        {
+            attributes.put(view, new ArrayList<SelectAttribute>());
+            slots.put(view, new ArrayList<Integer>());
+        }
+        attributes.get(view).add(aAttribute);
+        slots.get(view).add(aSlot);
+    }
+
+    boolean isEmpty()
+    {
+        return attributes.isEmpty();
+    }
+
+    /**
+     * @return true if condition of attribute is moved into nested query.
+     */
+    boolean contains(SelectAttribute aAttribute)
+    {
+        List<SelectAttribute> pushed = attributes.get(aAttribute.getView());
+        return pushed != null && pushed.contains(aAttribute);
+    }
+
+    /**
+     * @return true if conditions are moved into view.
+     */
+    boolean contains(View aView)
+    {
+        return attributes.containsKey(aView);
+    }
+
+    /**
+     * Appends source of view with moved conditions.
+     * 
+     * @param aOut
+     *            output builder
+     * @param aView
+     *            view joined in query, with moved conditions.
+     * @param aNested
+     *            sources of views nested in view, possibly null.
+     * @return output builder
+     */
+    StringBuilder prepareSource(StringBuilder aOut, View aView,
+            NestedSources aNested)
+    {
+        return ((QueryView) aView).prepareSource(aOut, attributes.get(aView),
+                slots.get(aView), params, aNested);
+    }
+}
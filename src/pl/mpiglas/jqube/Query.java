@@ -17,35 +17,40 @@
  */
 package pl.mpiglas.jqube;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
 /**
- * Query - statement string and query parameters.
+ * Query - statement string and query parameters. Instances are immutable, so
+ * single query might be shared (e.g. by {@link QueryCache}).
  */
 public class Query
 {
     private final String statement;
-    private final Map<ViewAttribute, List<Integer>> params;
+    private final ParamLayout paramLayout;
     private final List<ViewAttribute> selectAttributes;
+    private volatile Map<ViewAttribute, List<Integer>> params;
 
     /**
      * Inits query with statement string and parameters
      * 
      * @param aStatement
      *            full statement string.
-     * @param aParams
-     *            map of attributes with assigned indexes of parameters.
+     * @param aParamLayout
+     *            layout of statement's parameters.
      * @param aAttributes
      *            list of attributes used in query.
      */
-    public Query(String aStatement, Map<ViewAttribute, List<Integer>> aParams,
+    public Query(String aStatement, ParamLayout aParamLayout,
             List<ViewAttribute> aAttributes)
     {
         super();
         this.statement = aStatement;
-        this.params = aParams;
-        this.selectAttributes = aAttributes;
+        this.paramLayout = aParamLayout;
+        this.selectAttributes = Collections.unmodifiableList(aAttributes);
     }
 
     public final String getStatement()
@@ -53,9 +58,50 @@ public class Query
         return statement;
     }
 
+    public final ParamLayout getParamLayout()
+    {
+        return paramLayout;
+    }
+
+    /**
+     * Map of attributes and indexes of their parameters. Map is created from
+     * {@link #getParamLayout()} on the first call. Parameters without
+     * attribute (e.g. limit of page) are omitted.
+     * 
+     * @return map of attributes with assigned indexes of parameters.
+     */
     public final Map<ViewAttribute, List<Integer>> getParams()
     {
-        return params;
+        Map<ViewAttribute, List<Integer>> p = params;
+        if (p == null)
+        {
+            Map<ViewAttribute, List<Integer>> map = new HashMap<>();
+            for (int i = 0; i < paramLayout.size(); i++)
+            {
+                ViewAttribute attr = paramLayout.getAttribute(i);
+                if (attr == null)
+                {
+                    continue;
+                }
+                List<Integer> indexes = map.get(attr);
+                if (indexes == null)
+                {
+                    indexes = new ArrayList<>();
+                    map.put(attr, indexes);
+                }
+                for (int n = 0; n < paramLayout.getPositionCount(i); n++)
+                {
+                    indexes.add(paramLayout.getPosition(i, n));
+                }
+            }
+            for (Map.Entry<ViewAttribute, List<Integer>> e : map.entrySet())
+            {
+                e.setValue(Collections.unmodifiableList(e.getValue()));
+            }
+            p = Collections.unmodifiableMap(map);
+            params = p;
+        }
+        return p;
     }
 
     public final List<ViewAttribute> getSelectAttributes()
@@ -30,6 +30,7 @@ public class QueryBuilder
 {
     private Schema schema;
     private List<SelectAttribute> attributes;
+    private List<Boolean> outerJoins;
     private Tree tree;
 
     /**
@@ -41,6 +42,7 @@ public class QueryBuilder
     {
         schema = aSchema;
         attributes = new ArrayList<>();
+        outerJoins = new ArrayList<>();
         tree = new Tree(schema);
     }
 
@@ -56,6 +58,7 @@ public class QueryBuilder
     {
         tree.addJoin(aAttribute.getView(), aOuterJoin);
         attributes.add(aAttribute);
+        outerJoins.add(aOuterJoin);
     }
 
     /**
@@ -99,8 +102,20 @@ public class QueryBuilder
         Set<SelectAttribute> groupSet = new HashSet<>();
         Set<SelectAttribute> aggregateSet = new HashSet<>();
         Set<SelectAttribute> visibleSet = new HashSet<>();
+        // hidden aggregated attribute with condition is used in HAVING only
+        boolean having = false;
         for (SelectAttribute a : attributes)
         {
+            if (a.getAggregation() != null)
+            {
+                a.getAggregation().getResultType(a.getSqlType());
+                having |= a.getCondition() != null;
+                if (a.isGroupBy())
+                {
+                    throw new IllegalArgumentException("Attribute "
+                            + a.getDbName() + " is aggregated and grouped");
+                }
+            }
             if (a.isVisible())
             {
                 visibleSet.add(a);
@@ -117,12 +132,17 @@ public class QueryBuilder
         if (aggregateSet.isEmpty() && groupSet.isEmpty()
                 && !visibleSet.isEmpty())
         {
+            if (having)
+            {
+                throw new IllegalArgumentException(
+                        "Condition of aggregated attribute in query without aggregation");
+            }
             return;
         } else if (!aggregateSet.isEmpty() && groupSet.isEmpty()
                 && visibleSet.equals(aggregateSet))
         {
             return;
-        } else if (!aggregateSet.isEmpty() && !groupSet.isEmpty()
+        } else if ((!aggregateSet.isEmpty() || having) && !groupSet.isEmpty()
                 && equalsSetsPair(visibleSet, groupSet, aggregateSet)
                 && setsDisjoint(groupSet, aggregateSet))
         {
@@ -131,9 +151,46 @@ public class QueryBuilder
         throw new IllegalArgumentException("Aggregation and group by");
     }
 
+    /**
+     * Calculates structural fingerprint of this builder - schema and its
+     * modification count, views, attributes, their flags, chains of
+     * conditions and join types.
+     * 
+     * @return shape of query built by this builder.
+     */
+    public QueryShape getShape()
+    {
+        List<Object> parts = new ArrayList<>();
+        parts.add(schema);
+        parts.add(schema.getModificationCount());
+        for (int i = 0; i < attributes.size(); i++)
+        {
+            SelectAttribute a = attributes.get(i);
+            int flags = (a.isVisible() ? 1 : 0) | (a.isOrderBy() ? 2 : 0)
+                    | (a.isGroupBy() ? 4 : 0) | (outerJoins.get(i) ? 8 : 0);
+            parts.add(a.getView());
+            parts.add(a.getDbName());
+            parts.add(a.getUserName());
+            parts.add(a.getSqlType());
+            parts.add(a.getAggregation());
+            parts.add(flags);
+            int conditions = 0;
+            for (Condition c = a.getCondition(); c != null; c = c.getNext())
+            {
+                parts.add(c.getFunction());
+                parts.add(c.getOperator());
+                conditions++;
+            }
+            parts.add(conditions);
+        }
+        return new QueryShape(parts.toArray());
+    }
+
     /**
      * Prepares view representing query. Such view might be added to schema and
-     * used in new queries.
+     * used in new queries. This is the freeze step - view copies builder's
+     * state and conditions, so it is immutable and might be shared between
+     * threads, while builder remains free to change.
      * 
      * @param aViewName
      *            view's name.
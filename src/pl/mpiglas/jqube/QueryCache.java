@@ -0,0 +1,154 @@
+/*
+ * Select query builder
+ * Copyright (C) 2014  Milosz Piglas [milosz@archeocs.com]
+ *    
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package pl.mpiglas.jqube;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded cache of compiled queries. Queries are identified by
+ * {@link QueryShape} of builder, so building the same shape again costs only
+ * lookup in the cache. When the cache is full, least recently used query is
+ * evicted. Instances of this class are thread-safe.
+ * 
+ */
+public class QueryCache
+{
+    private final int maxSize;
+    private final Map<QueryShape, Query> queries;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    /**
+     * Inits cache.
+     * 
+     * @param aMaxSize
+     *            maximal number of queries kept in cache.
+     */
+    public QueryCache(int aMaxSize)
+    {
+        if (aMaxSize < 1)
+        {
+            throw new IllegalArgumentException("Cache size must be positive");
+        }
+        maxSize = aMaxSize;
+        queries = new LinkedHashMap<QueryShape, Query>(16, 0.75f, true)
+        {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<QueryShape, Query> aEldest)
+            {
+                if (size() > maxSize)
+                {
+                    evictions.incrementAndGet();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Returns query compiled for shape of given builder. If such query is not
+     * in cache, it is built and saved.
+     * 
+     * @param aBuilder
+     *            query builder
+     * @return query - statement and parameters.
+     */
+    public Query get(QueryBuilder aBuilder)
+    {
+        QueryShape shape = aBuilder.getShape();
+        Query query;
+        synchronized (queries)
+        {
+            query = queries.get(shape);
+        }
+        if (query != null)
+        {
+            hits.incrementAndGet();
+            return query;
+        }
+        misses.incrementAndGet();
+        query = aBuilder.build();
+        synchronized (queries)
+        {
+            Query existing = queries.get(shape);
+            if (existing != null)
+            {
+                return existing;
+            }
+            queries.put(shape, query);
+        }
+        return query;
+    }
+
+    /**
+     * Removes all queries from cache. Counters are not reset.
+     */
+    public void clear()
+    {
+        synchronized (queries)
+        {
+            queries.clear();
+        }
+    }
+
+    /**
+     * @return number of queries in cache.
+     */
+    public int size()
+    {
+        synchronized (queries)
+        {
+            return queries.size();
+        }
+    }
+
+    public final int getMaxSize()
+    {
+        return maxSize;
+    }
+
+    /**
+     * @return number of lookups that found query in cache.
+     */
+    public long getHits()
+    {
+        return hits.get();
+    }
+
+    /**
+     * @return number of lookups that had to build query.
+     */
+    public long getMisses()
+    {
+        return misses.get();
+    }
+
+    /**
+     * @return number of queries removed from cache because of its size.
+     */
+    public long getEvictions()
+    {
+        return evictions.get();
+    }
+}
@@ -0,0 +1,65 @@
+/*
+ * Select query builder
+ * Copyright (C) 2014  Milosz Piglas [milosz@archeocs.com]
+ *    
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package pl.mpiglas.jqube;
+
+import java.util.Arrays;
+
+/**
+ * Structural fingerprint of {@link QueryBuilder}. Two builders with equal
+ * shapes produce the same query, so shape might be used as key of compiled
+ * queries (see {@link QueryCache}).
+ * 
+ */
+public final class QueryShape
+{
+    private final Object[] parts;
+    private final int hash;
+
+    /**
+     * Inits shape from its components.
+     * 
+     * @param aParts
+     *            elements describing builder - views, attributes, flags and
+     *            conditions.
+     */
+    QueryShape(Object[] aParts)
+    {
+        parts = aParts;
+        hash = Arrays.hashCode(aParts);
+    }
+
+    @Override
+    public int hashCode()
+    {
+        return hash;
+    }
+
+    @Override
+    public boolean equals(Object obj)
+    {
+        if (this == obj)
+            return true;
+        if (obj == null)
+            return false;
+        if (getClass() != obj.getClass())
+            return false;
+        QueryShape other = (QueryShape) obj;
+        return hash == other.hash && Arrays.equals(parts, other.parts);
+    }
+
+}
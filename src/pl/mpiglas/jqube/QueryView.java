@@ -19,20 +19,48 @@ package pl.mpiglas.jqube;
 
 import java.sql.Types;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 /**
  * Implementation of view representing query. Such view might be used, as nested query, to build other ones.
+ * View is a frozen snapshot of builder's state - its attributes and trees are
+ * computed once (source and queries on the first use) and later changes of
+ * builder or of its conditions do not affect it. View is deeply immutable (variants of query are cached in
+ * concurrent maps), so many threads might render, bind and reuse it without
+ * locking. Rendering does not read schema - relations of joined and
+ * eliminated views are kept in tree of view and snapshot of statistics is
+ * taken when view is built, so schema might be extended while views are used.
  * 
  */
 public class QueryView implements View
 {
 
-    private Tree tree;
-    private List<SelectAttribute> attributes;
-    private String name;
+    private final Tree joins;
+    private final Tree tree;
+    private final Tree filtered;
+    private final Statistics statistics;
+    private final Dialect dialect;
+    private final List<SelectAttribute> attributes;
+    private final String name;
+    private final ViewAttribute[] viewAttributes;
+    private final List<ViewAttribute> visibleAttributes;
+    private final List<String> attributeNames;
+    private final Map<String, ViewAttribute> attributesByName;
+    private final Map<String, SelectAttribute> selectByName;
+    private volatile String source;
+    private final int[] firstSlots;
+    private final ViewAttribute[] slotAttributes;
+    private final int[] slotTypes;
+    private final boolean[] slotLists;
+    private final List<ViewAttribute> predicates;
+    private final ConcurrentMap<List<Object>, Query> variants = new ConcurrentHashMap<>();
+    private volatile Query query;
 
     /**
      * Inits view representing query.
@@ -43,75 +71,578 @@ public class QueryView implements View
     public QueryView(String aName, List<SelectAttribute> aAttributes, Tree aTree)
     {
         name = aName;
-        attributes = aAttributes;
-        tree = aTree;
+        List<SelectAttribute> frozen = new ArrayList<>(aAttributes.size());
+        for (SelectAttribute a : aAttributes)
+        {
+            frozen.add(a.freeze());
+        }
+        attributes = Collections.unmodifiableList(frozen);
+        joins = aTree.copy();
+        joins.eliminateJoins(attributes);
+        statistics = aTree.getStatistics();
+        dialect = aTree.getDialect();
+        joins.orderJoins(attributes, statistics);
+        tree = joins.copy();
+        tree.flattenViews();
+        if (tree.isSemiJoinable(attributes))
+        {
+            filtered = tree.copy();
+            filtered.semiJoinFilters(attributes);
+        } else
+        {
+            filtered = tree;
+        }
+        viewAttributes = new ViewAttribute[attributes.size()];
+        List<ViewAttribute> visible = new ArrayList<>();
+        List<String> names = new ArrayList<>();
+        Map<String, ViewAttribute> byName = new HashMap<>();
+        Map<String, SelectAttribute> selectNames = new HashMap<>();
+        for (int i = 0; i < viewAttributes.length; i++)
+        {
+            SelectAttribute a = attributes.get(i);
+            String attrName = a.getUserName() != null ? a.getUserName() : a
+                    .getDbName();
+            int type = a.getAggregation() != null ? a.getAggregation()
+                    .getResultType(a.getSqlType()) : a.getSqlType();
+            viewAttributes[i] = new ViewAttribute(attrName, this, null, type);
+            if (a.isVisible())
+            {
+                visible.add(viewAttributes[i]);
+                names.add(attrName);
+                if (!byName.containsKey(attrName))
+                {
+                    byName.put(attrName, viewAttributes[i]);
+                    selectNames.put(attrName, a);
+                }
+            }
+        }
+        visibleAttributes = Collections.unmodifiableList(visible);
+        attributeNames = Collections.unmodifiableList(names);
+        attributesByName = byName;
+        selectByName = selectNames;
+        firstSlots = new int[attributes.size()];
+        int slots = 0;
+        for (int i = 0; i < firstSlots.length; i++)
+        {
+            Condition c = attributes.get(i).getCondition();
+            firstSlots[i] = c != null ? slots : -1;
+            slots += c != null ? c.getLength() : 0;
+        }
+        List<ViewAttribute> conditions = new ArrayList<>();
+        for (int i = 0; i < firstSlots.length; i++)
+        {
+            if (firstSlots[i] >= 0)
+            {
+                conditions.add(viewAttributes[i]);
+            }
+        }
+        predicates = Collections.unmodifiableList(conditions);
+        slotAttributes = new ViewAttribute[slots];
+        slotTypes = new int[slots];
+        slotLists = new boolean[slots];
+        for (int i = 0; i < firstSlots.length; i++)
+        {
+            SelectAttribute a = attributes.get(i);
+            int slot = firstSlots[i];
+            for (Condition c = a.getCondition(); c != null; c = c.getNext())
+            {
+                slotAttributes[slot] = viewAttributes[i];
+                slotTypes[slot] = a.getSqlType();
+                slotLists[slot] = c.getOperator() == Condition.Operator.IN;
+                slot++;
+            }
+        }
+    }
+
+    /**
+     * Appends statement of this query to given builder. Whole statement is
+     * written directly to the builder, so it might be reused between calls.
+     * 
+     * @param aOut
+     *            output builder
+     * @param aParams
+     *            builder of parameters (see {@link #prepareParams(int[], InListPolicy)}).
+     *            If null, WHERE and HAVING clauses are omitted.
+     * @return output builder
+     */
+    public StringBuilder prepareString(StringBuilder aOut, ParamsBuilder aParams)
+    {
+        if (aParams == null)
+        {
+            prepareSelect(aOut, tree, null, null);
+            prepareGroupAndOrder(aOut, tree, null, null);
+            return aOut;
+        }
+        NestedSources sources = NestedSources.prepare(filtered,
+                preparePushed(filtered, aParams, null), null);
+        prepareSelect(aOut, filtered, null, sources);
+        prepareWhere(aOut, filtered, aParams, null, sources);
+        prepareGroupAndOrder(aOut, filtered, aParams, null);
+        return aOut;
+    }
+
+    /**
+     * Appends source of view with conditions of outer query - statement
+     * with WHERE clause built from given conditions only.
+     * 
+     * @param aOut
+     *            output builder
+     * @param aConditions
+     *            attributes of this view with conditions, from outer query
+     *            (see {@link #isPushable(String)}).
+     * @param aSlots
+     *            slot of the first condition of each attribute.
+     * @param aParams
+     *            builder of parameters of outer query.
+     * @param aSources
+     *            sources of views nested in this one, possibly null.
+     * @return output builder
+     */
+    StringBuilder prepareSource(StringBuilder aOut,
+            List<SelectAttribute> aConditions, List<Integer> aSlots,
+            ParamsBuilder aParams, NestedSources aSources)
+    {
+        aOut.append('(');
+        prepareSelect(aOut, tree, null, aSources);
+        for (int i = 0; i < aConditions.size(); i++)
+        {
+            SelectAttribute outer = aConditions.get(i);
+            aOut.append(i == 0 ? "\n WHERE " : " ");
+            outer.getCondition().prepareString(aOut, tree,
+                    selectByName.get(outer.getDbName()), aParams,
+                    aSlots.get(i), i == 0);
+        }
+        prepareGroupAndOrder(aOut, tree, null, null);
+        return aOut.append(')');
+    }
+
+    /**
+     * Appends source of view (see {@link #getSource()}), views nested in it
+     * are written by given sources.
+     * 
+     * @param aOut
+     *            output builder
+     * @param aSources
+     *            sources of views nested in this one.
+     * @return output builder
+     */
+    StringBuilder prepareSource(StringBuilder aOut, NestedSources aSources)
+    {
+        aOut.append('(');
+        prepareSelect(aOut, tree, null, aSources);
+        prepareGroupAndOrder(aOut, tree, null, null);
+        return aOut.append(')');
     }
 
-    private boolean addToBuilder(StringBuilder aOutBuilder,
-            List<StringBuilder> values, String aSeparator)
+    /**
+     * Checks if condition of outer query on attribute might be moved into
+     * WHERE clause of this view. It is possible for grouped attribute, or -
+     * if view is not aggregated - for any attribute, which is not aggregated.
+     * 
+     * @param aName
+     *            name of visible attribute
+     * @return true if condition filters the same rows in this view.
+     */
+    boolean isPushable(String aName)
     {
-        if (values.isEmpty())
+        SelectAttribute a = selectByName.get(aName);
+        if (a == null || a.getAggregation() != null)
         {
             return false;
         }
-        aOutBuilder.append(values.get(0));
-        if (values.size() > 1)
+        if (a.isGroupBy())
         {
-            for (int i = 1; i < values.size(); i++)
+            return true;
+        }
+        for (SelectAttribute other : attributes)
+        {
+            if (other.getAggregation() != null || other.isGroupBy())
             {
-                aOutBuilder.append(aSeparator).append(values.get(i));
+                return false;
             }
         }
         return true;
     }
 
-    private String buildQuery(boolean aWithParams)
+    /**
+     * Checks if WHERE clause is a conjunction - every condition is joined
+     * with AND, so single conditions might be moved out of it.
+     */
+    private boolean isConjunctive(boolean[] aActive)
     {
-        StringBuilder query = new StringBuilder("SELECT");
-        List<StringBuilder> attrs = new ArrayList<>();
-        List<StringBuilder> order = new ArrayList<>();
-        List<StringBuilder> group = new ArrayList<>();
-        List<StringBuilder> where = new ArrayList<>();
-        int paramCount = 0;
-        for (SelectAttribute a : attributes)
+        boolean first = true;
+        for (int i = 0; i < attributes.size(); i++)
         {
-            String alias = tree.getViewAlias(a.getView());
-            StringBuilder qn = a.prepareQueryName(alias);
-            StringBuilder orderName = a.prepareOrderByName(alias);
+            SelectAttribute a = attributes.get(i);
+            if (a.getCondition() == null || a.getAggregation() != null
+                    || (aActive != null && !aActive[i]))
+            {
+                continue;
+            }
+            for (Condition c = a.getCondition(); c != null; c = c.getNext())
+            {
+                if (!first && c.getFunction() != Condition.Function.AND)
+                {
+                    return false;
+                }
+                first = false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Selects conditions, which are moved into nested query views. Conditions
+     * are moved only if WHERE clause is a conjunction.
+     * 
+     * @return moved conditions, or null if none is moved.
+     */
+    private PushedConditions preparePushed(Tree aTree, ParamsBuilder aParams,
+            boolean[] aActive)
+    {
+        if (!isConjunctive(aActive))
+        {
+            return null;
+        }
+        PushedConditions pushed = new PushedConditions(aParams);
+        for (int i = 0; i < attributes.size(); i++)
+        {
+            SelectAttribute a = attributes.get(i);
+            if (a.getCondition() == null || a.getAggregation() != null
+                    || (aActive != null && !aActive[i]))
+            {
+                continue;
+            }
+            if (aTree.isFilterable(a)
+                    && ((QueryView) a.getView()).isPushable(a.getDbName()))
+            {
+                pushed.add(a, firstSlots[i]);
+            }
+        }
+        return pushed.isEmpty() ? null : pushed;
+    }
+
+    /**
+     * Prepares builder of parameters for this query.
+     * 
+     * @param aWidths
+     *            number of parameters of each list slot (see
+     *            {@link ParamsBuilder}), possibly null.
+     * @param aPolicy
+     *            policy of IN lists, possibly null.
+     * @return builder of parameters.
+     */
+    public ParamsBuilder prepareParams(int[] aWidths, InListPolicy aPolicy)
+    {
+        return new ParamsBuilder(slotAttributes, slotTypes, slotLists,
+                aWidths, aPolicy);
+    }
+
+    /**
+     * Appends SELECT clause with visible attributes and - after them - names
+     * of given keys.
+     */
+    private void prepareSelect(StringBuilder aOut, Tree aTree,
+            List<SelectAttribute> aKeys, NestedSources aSources)
+    {
+        aOut.append("SELECT ");
+        boolean first = true;
+        for (int i = 0; i < attributes.size(); i++)
+        {
+            SelectAttribute a = attributes.get(i);
             if (a.isVisible())
             {
-                attrs.add(qn);
+                if (!first)
+                {
+                    aOut.append(", ");
+                }
+                a.prepareQueryName(aOut, aTree);
+                first = false;
             }
-            if (a.isOrderBy())
+        }
+        for (int k = 0; aKeys != null && k < aKeys.size(); k++)
+        {
+            aKeys.get(k).prepareName(aOut.append(first ? "" : ", "), aTree);
+            first = false;
+        }
+        aOut.append(" FROM\n");
+        aTree.prepareString(aOut, aSources);
+    }
+
+    private void prepareWhere(StringBuilder aOut, Tree aTree,
+            ParamsBuilder aParams, boolean[] aActive, NestedSources aSources)
+    {
+        prepareConditions(aOut, aTree, aParams, aActive, false, aSources);
+    }
+
+    /**
+     * Appends conditions of not aggregated attributes (WHERE) or of
+     * aggregated ones (HAVING). Slots are rendered in order of clauses, so
+     * parameters of conditions moved into nested views come first and
+     * parameters of HAVING follow parameters of WHERE in statement.
+     * Conditions of semi-joined views are written in EXISTS subqueries at the
+     * end of WHERE clause. If conditions are not joined with AND, whole WHERE
+     * clause is written in the innermost of nested EXISTS subqueries.
+     */
+    private void prepareConditions(StringBuilder aOut, Tree aTree,
+            ParamsBuilder aParams, boolean[] aActive, boolean aAggregated,
+            NestedSources aSources)
+    {
+        boolean nested = !aAggregated && aTree.getSemiJoinCount() > 0
+                && !isConjunctive(aActive);
+        if (nested)
+        {
+            aOut.append("\n WHERE ");
+            for (int k = 0; k < aTree.getSemiJoinCount(); k++)
             {
-                order.add(orderName);
+                aTree.prepareSemiJoin(aOut, k, aSources).append(" AND ");
+            }
+            aOut.append('(');
+        }
+        boolean first = true;
+        for (int i = 0; i < attributes.size(); i++)
+        {
+            SelectAttribute a = attributes.get(i);
+            if (a.getCondition() != null
+                    && (a.getAggregation() != null) == aAggregated
+                    && (aActive == null || aActive[i])
+                    && (aSources == null || !aSources.contains(a))
+                    && (aAggregated || nested || aTree.getSemiJoin(a) < 0))
+            {
+                aOut.append(first ? nested ? "" : aAggregated ? "\n HAVING "
+                        : "\n WHERE " : " ");
+                a.getCondition().prepareString(aOut, aTree, a, aParams,
+                        firstSlots[i], first);
+                first = false;
+            }
+        }
+        if (nested)
+        {
+            for (int k = 0; k <= aTree.getSemiJoinCount(); k++)
+            {
+                aOut.append(')');
+            }
+            return;
+        }
+        for (int k = 0; !aAggregated && k < aTree.getSemiJoinCount(); k++)
+        {
+            aOut.append(first ? "\n WHERE " : "  AND  ");
+            aTree.prepareSemiJoin(aOut, k, aSources);
+            for (int i = 0; i < attributes.size(); i++)
+            {
+                SelectAttribute a = attributes.get(i);
+                if (a.getCondition() != null && (aActive == null || aActive[i])
+                        && aTree.getSemiJoin(a) == k)
+                {
+                    // chain might be the first one in query's WHERE, where
+                    // its own function is ignored
+                    aOut.append(' ');
+                    a.getCondition().prepareString(aOut, aTree, a, aParams,
+                            firstSlots[i], Condition.Function.AND);
+                }
             }
+            aOut.append(')');
+            first = false;
+        }
+    }
+
+    private void prepareGroupAndOrder(StringBuilder aOut, Tree aTree,
+            ParamsBuilder aParams, boolean[] aActive)
+    {
+        boolean first = true;
+        for (int i = 0; i < attributes.size(); i++)
+        {
+            SelectAttribute a = attributes.get(i);
             if (a.isGroupBy())
             {
-                group.add(qn);
+                aOut.append(first ? "\n GROUP BY " : ", ");
+                a.prepareName(aOut, aTree);
+                first = false;
+            }
+        }
+        if (aParams != null)
+        {
+            prepareConditions(aOut, aTree, aParams, aActive, true, null);
+        }
+        first = true;
+        for (int i = 0; i < attributes.size(); i++)
+        {
+            SelectAttribute a = attributes.get(i);
+            if (a.isOrderBy())
+            {
+                aOut.append(first ? "\n ORDER BY " : ", ");
+                a.prepareOrderByName(aOut, aTree);
+                first = false;
+            }
+        }
+    }
+
+    /**
+     * Checks if view might be inlined in FROM clause of other query, instead
+     * of being used as derived table. It is possible, if none of attributes
+     * is aggregated, grouped or ordered. Conditions of view are not part of
+     * its source (see {@link #getSource()}), so they do not matter.
+     * 
+     * @return true if view is simple join of other views.
+     */
+    public boolean isFlattenable()
+    {
+        for (SelectAttribute a : attributes)
+        {
+            if (a.getAggregation() != null || a.isGroupBy() || a.isOrderBy())
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    Tree getTree()
+    {
+        return tree;
+    }
+
+    /**
+     * @param aName
+     *            name of visible attribute
+     * @return definition of attribute in query, or null if there is no such
+     *         attribute.
+     */
+    SelectAttribute getSelectAttribute(String aName)
+    {
+        return selectByName.get(aName);
+    }
+
+    /**
+     * Checks if query might be run for many sets of parameters at once (see
+     * {@link #getBatchQuery(int)}). It is possible, if every attribute has
+     * single equality condition, conditions are joined with AND, attributes
+     * with conditions are integers or strings joined in FROM clause (not
+     * semi-joined) and - in grouped query - all attributes with conditions
+     * are grouped. Rows are assigned to parameters' sets by values of keys,
+     * so types of keys are restricted to those compared exactly.
+     * 
+     * @return true if query might be rewritten into batch query.
+     */
+    public boolean isBatchable()
+    {
+        boolean grouped = false;
+        for (SelectAttribute a : attributes)
+        {
+            grouped |= a.isGroupBy() || a.getAggregation() != null;
+        }
+        boolean first = true;
+        for (SelectAttribute a : attributes)
+        {
+            Condition c = a.getCondition();
+            if (c == null)
+            {
+                continue;
             }
-            if (aWithParams && a.getCondition() != null)
+            if (c.getNext() != null || c.getOperator() != Condition.Operator.EQ
+                    || (!first && c.getFunction() != Condition.Function.AND)
+                    || (grouped && !a.isGroupBy()) || !isExactKey(a.getSqlType())
+                    || filtered.getSemiJoin(a) >= 0)
             {
-                String name = a.prepareName(alias).toString();
-                where.add(a.getCondition().prepareString(name, paramCount));
-                paramCount = a.getCondition().getIndex() + 1;
+                return false;
             }
+            first = false;
         }
-        addToBuilder(query.append(" "), attrs, ", ");
-        query.append(" FROM\n").append(tree.prepareString());
-        if (!where.isEmpty())
+        return !first;
+    }
+
+    private static boolean isExactKey(int aSqlType)
+    {
+        switch (aSqlType)
         {
-            addToBuilder(query.append("\n WHERE "), where, " ");
+        case Types.TINYINT:
+        case Types.SMALLINT:
+        case Types.INTEGER:
+        case Types.BIGINT:
+        case Types.VARCHAR:
+        case Types.NVARCHAR:
+            return true;
+        default:
+            return false;
         }
-        if (!group.isEmpty())
+    }
+
+    /**
+     * Prepares query, which reads rows for many sets of parameters at once.
+     * Conditions of query are replaced with 'key IN (?, ?, ...)' or, for many
+     * attributes, with '((key1 = ? AND key2 = ?) OR (...))'. Query reads
+     * the same columns as {@link #getQuery()}, attributes with conditions
+     * follow them (column of key k is number of visible attributes + k + 1),
+     * so rows might be assigned to parameters' sets. Keys are not part of
+     * select attributes of returned query. Slot k of set t in returned
+     * query's layout has number t * (number of parameters) + k.
+     * 
+     * @param aTuples
+     *            number of parameters' sets.
+     * @return batch query.
+     * @throws IllegalStateException
+     *             if query is not batchable.
+     */
+    public Query getBatchQuery(int aTuples)
+    {
+        if (!isBatchable())
         {
-            addToBuilder(query.append("\n GROUP BY "), group, ", ");
+            throw new IllegalStateException("Query " + name
+                    + " might not be run in batch");
         }
-        if (!order.isEmpty())
+        List<SelectAttribute> keys = new ArrayList<>();
+        List<ViewAttribute> keyAttributes = new ArrayList<>();
+        for (int i = 0; i < viewAttributes.length; i++)
         {
-            addToBuilder(query.append("\n ORDER BY "), order, ", ");
+            SelectAttribute a = attributes.get(i);
+            if (a.getCondition() != null)
+            {
+                keys.add(a);
+                keyAttributes.add(viewAttributes[i]);
+            }
+        }
+        int slots = aTuples * keys.size();
+        ViewAttribute[] slotAttributes = new ViewAttribute[slots];
+        int[] positions = new int[slots];
+        int[] types = new int[slots];
+        NestedSources sources = NestedSources.prepare(filtered, null, dialect);
+        StringBuilder out = new StringBuilder(256 + 16 * slots);
+        prepareSelect(out, filtered, keys, sources);
+        out.append("\n WHERE ");
+        for (int k = 0; k < filtered.getSemiJoinCount(); k++)
+        {
+            filtered.prepareSemiJoin(out, k, sources).append(")  AND  ");
+        }
+        out.append(keys.size() == 1 ? "" : "(");
+        if (keys.size() == 1)
+        {
+            keys.get(0).prepareName(out, filtered).append(" IN (");
         }
-        return query.toString();
+        for (int t = 0; t < aTuples; t++)
+        {
+            out.append(t == 0 ? "" : keys.size() == 1 ? ", " : " OR ");
+            for (int k = 0; k < keys.size(); k++)
+            {
+                if (keys.size() > 1)
+                {
+                    out.append(k == 0 ? "(" : " AND ");
+                    keys.get(k).prepareName(out, filtered).append(" = ");
+                }
+                out.append('?');
+                int slot = t * keys.size() + k;
+                slotAttributes[slot] = keyAttributes.get(k);
+                positions[slot] = slot + 1;
+                types[slot] = keys.get(k).getSqlType();
+            }
+            if (keys.size() > 1)
+            {
+                out.append(')');
+            }
+        }
+        out.append(')');
+        prepareGroupAndOrder(out, filtered, null, null);
+        return new Query(prepareStatement(out, sources), new ParamLayout(
+                slotAttributes, positions, types), visibleAttributes);
     }
 
     /**
@@ -124,12 +655,21 @@ public class QueryView implements View
     }
 
     /**
+     * Source is rendered on the first call - views, which are not nested in
+     * other queries, never render it.
+     * 
      * @return statement without WHERE clause.
      */
     @Override
     public String getSource()
     {
-        return "(" + buildQuery(false) + ")";
+        String s = source;
+        if (s == null)
+        {
+            s = "(" + prepareString(new StringBuilder(256), null) + ")";
+            source = s;
+        }
+        return s;
     }
 
     /**
@@ -138,22 +678,13 @@ public class QueryView implements View
     @Override
     public ViewAttribute getAttribute(String aName)
     {
-        for (SelectAttribute a : attributes)
+        ViewAttribute attr = attributesByName.get(aName);
+        if (attr == null)
         {
-            if (a.isVisible())
-            {
-                String attrName = a.getUserName() != null ? a.getUserName() : a
-                        .getDbName();
-                int type = a.getAggregation() != null ? Types.INTEGER : a
-                        .getSqlType();
-                if (attrName.equals(aName))
-                {
-                    return new ViewAttribute(attrName, this, null, type);
-                }
-            }
-
+            throw new IllegalArgumentException("Attribute " + aName
+                    + " not found");
         }
-        throw new IllegalArgumentException("Attribute " + aName + " not found");
+        return attr;
     }
 
     /**
@@ -162,17 +693,7 @@ public class QueryView implements View
     @Override
     public List<String> getAttributeNames()
     {
-        List<String> names = new ArrayList<>();
-        for (SelectAttribute a : attributes)
-        {
-            if (a.isVisible())
-            {
-                String attrName = a.getUserName() != null ? a.getUserName() : a
-                        .getDbName();
-                names.add(attrName);
-            }
-        }
-        return names;
+        return attributeNames;
     }
 
     /**
@@ -181,56 +702,340 @@ public class QueryView implements View
     @Override
     public List<ViewAttribute> getAttributes()
     {
-        List<ViewAttribute> attrs = new ArrayList<>();
-        for (SelectAttribute a : attributes)
+        return visibleAttributes;
+    }
+
+    /**
+     * 
+     * @return ready to run statement and its parameters build from this view.
+     *         Each IN condition has single parameter.
+     */
+    public Query getQuery()
+    {
+        Query q = query;
+        if (q == null)
         {
-            if (a.isVisible())
-            {
-                String attrName = a.getUserName() != null ? a.getUserName() : a
-                        .getDbName();
-                int type = a.getAggregation() != null ? Types.INTEGER : a
-                        .getSqlType();
-                attrs.add(new ViewAttribute(attrName, this, null, type));
-            }
+            q = prepareQuery(null, null);
+            query = q;
         }
-        return attrs;
+        return q;
     }
 
-    private String getQueryString()
+    /**
+     * Prepares query for lists of given sizes. Slots of returned query's
+     * layout are ordered like slots of {@link #getQuery()}, each list slot is
+     * expanded to as many slots as list has parameters - padded to bucket
+     * size, or none if list is read from table. Queries are cached by
+     * buckets, so only few distinct statements exist.
+     * 
+     * @param aListSizes
+     *            size of list for each slot of {@link #getQuery()}, ignored for
+     *            slots other than lists.
+     * @param aPolicy
+     *            policy of IN lists.
+     * @return query - statement and parameters.
+     */
+    public Query getQuery(int[] aListSizes, InListPolicy aPolicy)
     {
-        return buildQuery(true);
+        if (aListSizes.length != slotLists.length)
+        {
+            throw new IllegalArgumentException("Expected "
+                    + slotLists.length + " sizes, got " + aListSizes.length);
+        }
+        int[] widths = new int[slotLists.length];
+        List<Object> key = new ArrayList<>(widths.length + 1);
+        key.add(aPolicy);
+        for (int i = 0; i < widths.length; i++)
+        {
+            widths[i] = slotLists[i] ? aPolicy.bucket(aListSizes[i]) : 1;
+            key.add(widths[i]);
+        }
+        Query q = variants.get(key);
+        if (q == null)
+        {
+            q = prepareQuery(widths, aPolicy);
+            Query existing = variants.putIfAbsent(key, q);
+            q = existing != null ? existing : q;
+        }
+        return q;
     }
 
-    private Map<ViewAttribute, List<Integer>> getQueryParams()
+    /**
+     * Attributes with conditions are optional predicates of view used as
+     * template (see {@link #getQuery(long)}).
+     * 
+     * @return attributes with conditions, predicate i is selected by bit
+     *         (1L &lt;&lt; i) of mask.
+     */
+    public List<ViewAttribute> getPredicates()
     {
-        int paramsCount = 1;
-        Map<ViewAttribute, List<Integer>> params = new HashMap<ViewAttribute, List<Integer>>();
-        for (SelectAttribute a : attributes)
+        return predicates;
+    }
+
+    /**
+     * Prepares variant of query with selected predicates only. View is a
+     * template - each variant is rendered on the first request and cached.
+     * Joins of views used only by inactive predicates are eliminated, if
+     * possible, or written as semi-joins without conditions, so variant reads
+     * the same rows as {@link #getQuery()} with inactive predicates always
+     * true. Layout of variant contains only slots of active predicates,
+     * in order of {@link #getQuery()}.
+     * 
+     * @param aPredicates
+     *            mask of active predicates, see {@link #getPredicates()}.
+     * @return query - statement and parameters.
+     * @throws IllegalArgumentException
+     *             if mask selects undefined predicate.
+     */
+    public Query getQuery(long aPredicates)
+    {
+        int count = predicates.size();
+        if (count > 64)
+        {
+            throw new IllegalStateException("Query " + name + " has "
+                    + count + " predicates, mask might select at most 64");
+        }
+        if (count < 64 && (aPredicates >>> count) != 0)
+        {
+            throw new IllegalArgumentException("Mask selects undefined predicate");
+        }
+        List<Object> key = Arrays.<Object> asList(aPredicates);
+        Query q = variants.get(key);
+        if (q == null)
+        {
+            q = prepareTemplateQuery(aPredicates);
+            Query existing = variants.putIfAbsent(key, q);
+            q = existing != null ? existing : q;
+        }
+        return q;
+    }
+
+    private Query prepareTemplateQuery(long aPredicates)
+    {
+        boolean[] active = new boolean[attributes.size()];
+        List<SelectAttribute> used = new ArrayList<>();
+        List<SelectAttribute> conditions = new ArrayList<>();
+        int bit = 0;
+        for (int i = 0; i < attributes.size(); i++)
         {
+            SelectAttribute a = attributes.get(i);
             if (a.getCondition() != null)
             {
-                String attrName = a.getUserName() != null ? a.getUserName() : a
-                        .getDbName();
-                int type = a.getAggregation() != null ? Types.INTEGER : a
-                        .getSqlType();
-                List<Integer> indexes = a.getCondition().getParamsIndexes(
-                        paramsCount);
-                params.put(new ViewAttribute(attrName, this, null, type),
-                        indexes);
-                paramsCount = indexes.get(indexes.size() - 1) + 1;
+                active[i] = (aPredicates & (1L << bit)) != 0;
+                bit++;
+                if (active[i])
+                {
+                    conditions.add(a);
+                }
+            }
+            if (a.isVisible() || a.isOrderBy() || a.isGroupBy() || active[i])
+            {
+                used.add(a);
             }
         }
-        return params;
+        Tree variant = joins.copy();
+        variant.eliminateJoins(used);
+        variant.orderJoins(conditions, statistics);
+        variant.flattenViews();
+        variant.semiJoinFilters(used);
+        ParamsBuilder params = prepareParams(null, null);
+        NestedSources sources = NestedSources.prepare(variant,
+                preparePushed(variant, params, active), dialect);
+        StringBuilder out = new StringBuilder(256);
+        prepareSelect(out, variant, null, sources);
+        prepareWhere(out, variant, params, active, sources);
+        prepareGroupAndOrder(out, variant, params, active);
+        return new Query(prepareStatement(out, sources), params.build(),
+                visibleAttributes);
+    }
 
+    /**
+     * Prepares query reading single page of rows - query of
+     * {@link #getQuery()} with clause skipping and limiting rows. Two last
+     * slots of returned query's layout are number of skipped rows and maximal
+     * number of rows. Pages are stable only if query is ordered by unique set
+     * of attributes.
+     * 
+     * @param aDialect
+     *            dialect of database
+     * @return query - statement and parameters.
+     */
+    public Query getPageQuery(Dialect aDialect)
+    {
+        return getPagedQuery(aDialect, false);
     }
 
     /**
+     * Prepares query reading page of rows, which follow given row (keyset
+     * pagination). Rows are filtered with '(a, b) > (?, ?)', where a, b are
+     * attributes of ORDER BY clause, so database skips previous pages using
+     * index and reading deep page costs as much as reading the first one.
+     * Slots of returned query's layout are slots of {@link #getQuery()},
+     * followed by values of ordered attributes in the last row of previous
+     * page and by maximal number of rows. The first page is read with
+     * {@link #getPageQuery(Dialect)}. Ordered attributes must be unique and
+     * not null together.
      * 
-     * @return ready to run statement and its parameters build from this view.
+     * @param aDialect
+     *            dialect of database
+     * @return query - statement and parameters.
+     * @throws IllegalStateException
+     *             if query is not ordered or is ordered by aggregated
+     *             attribute.
      */
-    public Query getQuery()
+    public Query getSeekQuery(Dialect aDialect)
+    {
+        return getPagedQuery(aDialect, true);
+    }
+
+    private Query getPagedQuery(Dialect aDialect, boolean aSeek)
     {
-        return new Query(getQueryString(), getQueryParams(), getAttributes());
+        List<Object> key = Arrays.<Object> asList(aDialect, aSeek);
+        Query q = variants.get(key);
+        if (q == null)
+        {
+            q = preparePagedQuery(aDialect, aSeek);
+            Query existing = variants.putIfAbsent(key, q);
+            q = existing != null ? existing : q;
+        }
+        return q;
+    }
+
+    private Query preparePagedQuery(Dialect aDialect, boolean aSeek)
+    {
+        List<SelectAttribute> order = new ArrayList<>();
+        List<ViewAttribute> orderAttributes = new ArrayList<>();
+        for (int i = 0; i < attributes.size(); i++)
+        {
+            SelectAttribute a = attributes.get(i);
+            if (a.isOrderBy())
+            {
+                if (aSeek && a.getAggregation() != null)
+                {
+                    throw new IllegalStateException("Query " + name
+                            + " is ordered by aggregated attribute");
+                }
+                order.add(a);
+                orderAttributes.add(viewAttributes[i]);
+            }
+        }
+        if (aSeek && order.isEmpty())
+        {
+            throw new IllegalStateException("Query " + name
+                    + " is not ordered");
+        }
+        int base = slotAttributes.length;
+        int slots = base + (aSeek ? order.size() + 1 : 2);
+        ViewAttribute[] pageAttributes = Arrays.copyOf(slotAttributes, slots);
+        int[] pageTypes = Arrays.copyOf(slotTypes, slots);
+        boolean[] pageLists = Arrays.copyOf(slotLists, slots);
+        for (int i = base; i < slots; i++)
+        {
+            pageTypes[i] = Types.INTEGER;
+        }
+        if (aSeek)
+        {
+            for (int k = 0; k < order.size(); k++)
+            {
+                pageAttributes[base + k] = orderAttributes.get(k);
+                pageTypes[base + k] = order.get(k).getSqlType();
+            }
+        }
+        ParamsBuilder params = new ParamsBuilder(pageAttributes, pageTypes,
+                pageLists, null, null);
+        NestedSources sources = NestedSources.prepare(filtered,
+                preparePushed(filtered, params, null), aDialect);
+        StringBuilder out = new StringBuilder(256);
+        prepareSelect(out, filtered, null, sources);
+        int where = out.length();
+        prepareWhere(out, filtered, params, null, sources);
+        if (aSeek)
+        {
+            if (out.length() > where)
+            {
+                out.insert(where + "\n WHERE ".length(), '(').append(
+                        ")\n AND ");
+            } else
+            {
+                out.append("\n WHERE ");
+            }
+            prepareSeek(out, params, aDialect, order, base);
+        }
+        prepareGroupAndOrder(out, filtered, params, null);
+        aDialect.prepareLimit(out, params, aSeek ? -1 : base, slots - 1);
+        return new Query(prepareStatement(out, sources), params.build(),
+                visibleAttributes);
+    }
+
+    private void prepareSeek(StringBuilder aOut, ParamsBuilder aParams,
+            Dialect aDialect, List<SelectAttribute> aOrder, int aFirstSlot)
+    {
+        int n = aOrder.size();
+        if (aDialect.hasRowValues() || n == 1)
+        {
+            aOut.append(n > 1 ? "(" : "");
+            for (int k = 0; k < n; k++)
+            {
+                aOrder.get(k).prepareName(aOut.append(k > 0 ? ", " : ""),
+                        tree);
+            }
+            aOut.append(n > 1 ? ") > (" : " > ");
+            for (int k = 0; k < n; k++)
+            {
+                aParams.prepareString(aOut.append(k > 0 ? ", " : ""),
+                        aFirstSlot + k);
+            }
+            aOut.append(n > 1 ? ")" : "");
+            return;
+        }
+        // a > ? OR (a = ? AND (b > ? OR (b = ? AND (c > ?))))
+        aOut.append('(');
+        for (int k = 0; k < n; k++)
+        {
+            SelectAttribute a = aOrder.get(k);
+            a.prepareName(aOut.append(k > 0 ? " AND (" : ""), tree).append(
+                    " > ");
+            aParams.prepareString(aOut, aFirstSlot + k);
+            if (k < n - 1)
+            {
+                a.prepareName(aOut.append(" OR ("), tree).append(" = ");
+                aParams.prepareString(aOut, aFirstSlot + k);
+            }
+        }
+        for (int k = 1; k < 2 * n; k++)
+        {
+            aOut.append(')');
+        }
+    }
+
+    private Query prepareQuery(int[] aWidths, InListPolicy aPolicy)
+    {
+        ParamsBuilder params = prepareParams(aWidths, aPolicy);
+        NestedSources sources = NestedSources.prepare(filtered,
+                preparePushed(filtered, params, null), dialect);
+        StringBuilder out = new StringBuilder(256);
+        prepareSelect(out, filtered, null, sources);
+        prepareWhere(out, filtered, params, null, sources);
+        prepareGroupAndOrder(out, filtered, params, null);
+        return new Query(prepareStatement(out, sources), params.build(),
+                visibleAttributes);
+    }
+
+    /**
+     * @return rendered statement, preceded by WITH clause of views shared
+     *         in it, if there are any.
+     */
+    private static String prepareStatement(StringBuilder aOut,
+            NestedSources aSources)
+    {
+        if (aSources == null)
+        {
+            return aOut.toString();
+        }
+        StringBuilder with = aSources.prepareWith(new StringBuilder(
+                aOut.length() + 256));
+        return with.length() == 0 ? aOut.toString() : with.append(aOut)
+                .toString();
     }
 
 }
@@ -18,19 +18,38 @@
 package pl.mpiglas.jqube;
 
 import java.util.ArrayList;
-import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
- * Database schema - set of views (tables and queries).
+ * Database schema - set of views (tables and queries). Schema keeps index of
+ * views' names and map of related views, so all lookups take constant time.
+ * Optional statistics of views, relations and attributes are used to choose
+ * order of joins (see {@link Tree#orderJoins(List, Statistics)}). View takes
+ * snapshot of statistics when it is built, so statistics must be registered
+ * before views, which should use them, are built. Likewise, views take
+ * dialect of schema, which enables WITH clause in queries other than paged
+ * ones.
  *
  */
 public class Schema
 {
 
-    private Map<View, List<ViewsRelation>> viewRelations = new HashMap<View, List<ViewsRelation>>();
+    private Map<View, Map<View, ViewsRelation>> viewRelations = new HashMap<View, Map<View, ViewsRelation>>();
+    private Map<View, List<View>> relatedViews = new HashMap<View, List<View>>();
+    private Map<View, List<View>> readOnlyRelatedViews = new HashMap<View, List<View>>();
+    private Map<String, View> viewNames = new HashMap<String, View>();
+    private Map<View, Long> rowCounts = new HashMap<View, Long>();
+    private Map<View, Map<String, Double>> attributeSelectivities = new HashMap<View, Map<String, Double>>();
+    private Map<ViewsRelation, Double> relationSelectivities = new HashMap<ViewsRelation, Double>();
+    private volatile Statistics statistics = new Statistics(rowCounts,
+            attributeSelectivities, relationSelectivities);
+    private final AtomicInteger modifications = new AtomicInteger();
+    private volatile Dialect dialect;
     
     /**
      * Adds new view to schema.
@@ -38,7 +57,7 @@ public class Schema
      */
     public void addView(View aView)
     {
-        viewRelations.put(aView, new ArrayList<ViewsRelation>());
+        register(aView);
     }
     
     /**
@@ -51,28 +70,48 @@ public class Schema
         View related = aRelation.getRelatedView(aView);
         if (viewRelations.containsKey(related))
         {
-            viewRelations.get(related).add(aRelation);
-            viewRelations.put(aView, new ArrayList<>(Arrays.asList(aRelation)));
+            register(aView);
+            addRelation(related, aView, aRelation);
+            addRelation(aView, related, aRelation);
         }
         else
         {
             throw new IllegalArgumentException("Relation does not match view in schema");
         }
     }
+
+    private void register(View aView)
+    {
+        modifications.incrementAndGet();
+        viewRelations.put(aView, new LinkedHashMap<View, ViewsRelation>());
+        List<View> related = new ArrayList<View>();
+        relatedViews.put(aView, related);
+        readOnlyRelatedViews.put(aView, Collections.unmodifiableList(related));
+        if (!viewNames.containsKey(aView.getName()))
+        {
+            viewNames.put(aView.getName(), aView);
+        }
+    }
+
+    private void addRelation(View aView, View aOther, ViewsRelation aRelation)
+    {
+        Map<View, ViewsRelation> relations = viewRelations.get(aView);
+        if (!relations.containsKey(aOther))
+        {
+            relations.put(aOther, aRelation);
+            relatedViews.get(aView).add(aOther);
+        }
+    }
     
     /**
      * @param aView view
-     * @return all views related to given one.
+     * @return all views related to given one (read-only list).
      */
     public List<View> getRelatedViews(View aView)
     {
-        if (viewRelations.containsKey(aView))
+        List<View> related = readOnlyRelatedViews.get(aView);
+        if (related != null)
         {
-            List<View> related = new ArrayList<>();
-            for (ViewsRelation r : viewRelations.get(aView))
-            {
-                related.add(r.getRelatedView(aView));
-            }
             return related;
         }
         throw new IllegalArgumentException("View not in schema");
@@ -85,14 +124,7 @@ public class Schema
      */
     public View getView(String aName)
     {
-        for (View v : viewRelations.keySet())
-        {
-            if (v.getName().equals(aName))
-            {
-                return v;
-            }
-        }
-        return null;
+        return viewNames.get(aName);
     }
     
     /**
@@ -104,17 +136,123 @@ public class Schema
      */
     public ViewsRelation getRelationOfViews(View aView, View aOther)
     {
-        if (viewRelations.containsKey(aView))
+        Map<View, ViewsRelation> relations = viewRelations.get(aView);
+        if (relations != null)
         {
-            for (ViewsRelation r : viewRelations.get(aView))
+            ViewsRelation relation = relations.get(aOther);
+            if (relation != null)
             {
-                if (r.isViewRelation(aOther))
-                {
-                    return r;
-                }
+                return relation;
             }
         }
         throw new IllegalArgumentException("Views are not related");
     }
-    
+
+    /**
+     * Registers number of rows of view. Views built before are not affected.
+     * @param aView view in schema
+     * @param aRows number of rows
+     * @throws IllegalArgumentException if view is not in schema or number is negative.
+     */
+    public synchronized void setRowCount(View aView, long aRows)
+    {
+        getRelatedViews(aView);
+        if (aRows < 0)
+        {
+            throw new IllegalArgumentException("Negative number of rows");
+        }
+        rowCounts.put(aView, aRows);
+        statistics = new Statistics(rowCounts, attributeSelectivities,
+                relationSelectivities);
+        modifications.incrementAndGet();
+    }
+
+    /**
+     * Registers selectivity of conditions of attribute.
+     * @param aAttribute attribute of view in schema
+     * @param aSelectivity fraction of rows of view, which match condition (0 - 1].
+     * @throws IllegalArgumentException if view is not in schema or selectivity is out of range.
+     */
+    public synchronized void setSelectivity(Attribute aAttribute, double aSelectivity)
+    {
+        getRelatedViews(aAttribute.getView());
+        checkSelectivity(aSelectivity);
+        Map<String, Double> selectivities = attributeSelectivities.get(aAttribute.getView());
+        if (selectivities == null)
+        {
+            selectivities = new HashMap<String, Double>();
+            attributeSelectivities.put(aAttribute.getView(), selectivities);
+        }
+        selectivities.put(aAttribute.getDbName(), aSelectivity);
+        statistics = new Statistics(rowCounts, attributeSelectivities,
+                relationSelectivities);
+        modifications.incrementAndGet();
+    }
+
+    /**
+     * Registers selectivity of relation - fraction of pairs of rows of both
+     * views, which are related. For relation by unique key it is 1 / (rows
+     * of key view), and such value is assumed if selectivity is not known.
+     * @param aRelation relation in schema
+     * @param aSelectivity fraction of pairs of rows (0 - 1].
+     * @throws IllegalArgumentException if selectivity is out of range.
+     */
+    public synchronized void setSelectivity(ViewsRelation aRelation, double aSelectivity)
+    {
+        checkSelectivity(aSelectivity);
+        relationSelectivities.put(aRelation, aSelectivity);
+        statistics = new Statistics(rowCounts, attributeSelectivities,
+                relationSelectivities);
+        modifications.incrementAndGet();
+    }
+
+    /**
+     * @return number of modifications of schema - added views and registered
+     * statistics. Queries built from different states of schema have
+     * different shapes.
+     */
+    public int getModificationCount()
+    {
+        return modifications.get();
+    }
+
+    /**
+     * Sets dialect of database. Repeated nested views are moved to WITH clause
+     * only if dialect is set and supports it - paged queries use their own
+     * dialect. Views built before are not affected.
+     * @param aDialect dialect, or null if it is not known.
+     */
+    public void setDialect(Dialect aDialect)
+    {
+        dialect = aDialect;
+        modifications.incrementAndGet();
+    }
+
+    /**
+     * @return dialect of database, or null if it is not known.
+     */
+    public Dialect getDialect()
+    {
+        return dialect;
+    }
+
+    private void checkSelectivity(double aSelectivity)
+    {
+        if (!(aSelectivity > 0 && aSelectivity <= 1))
+        {
+            throw new IllegalArgumentException("Selectivity out of range (0, 1]: "
+                    + aSelectivity);
+        }
+    }
+
+    /**
+     * Snapshot is replaced by each change of statistics (copy on write), so
+     * building views neither locks schema nor copies statistics.
+     * @return immutable snapshot of registered statistics.
+     */
+    public Statistics getStatistics()
+    {
+        return statistics;
+    }
+
 }
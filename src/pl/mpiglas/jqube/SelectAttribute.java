@@ -25,11 +25,11 @@ package pl.mpiglas.jqube;
 public class SelectAttribute extends ViewAttribute
 {
 
-    private boolean visible;
-    private boolean orderBy;
-    private boolean groupBy;
-    private Condition condition;
-    private Aggregation aggregation;
+    private final boolean visible;
+    private final boolean orderBy;
+    private final boolean groupBy;
+    private final Condition condition;
+    private final Aggregation aggregation;
 
     /**
      * Inits query's attribute.
@@ -93,52 +93,123 @@ public class SelectAttribute extends ViewAttribute
     }
 
     /**
+     * Every select attribute is a separate element of query, even if other
+     * one refers to the same column.
+     */
+    @Override
+    public int hashCode()
+    {
+        return System.identityHashCode(this);
+    }
+
+    @Override
+    public boolean equals(Object obj)
+    {
+        return this == obj;
+    }
+
+    /**
+     * Creates immutable copy of attribute - its chain of conditions is frozen.
+     * Copy is a new element of query, it is not equal to this attribute.
      * 
-     * @param aViewAlias
-     *            alias of view this attribute is assigned to.
-     * @return name used in SELECT clause and GROUP BY clause.
+     * @return frozen attribute, this one if it is already immutable.
      */
-    public StringBuilder prepareQueryName(String aViewAlias)
+    public SelectAttribute freeze()
     {
-        StringBuilder builder = prepareName(aViewAlias);
-        if (aggregation != null)
+        if (condition == null || condition.isFrozen())
         {
-            builder.insert(0, "(").insert(0, aggregation.getName()).append(")");
+            return this;
         }
+        return new SelectAttribute(getDbName(), getView(), getSqlType(),
+                visible, orderBy, groupBy, condition.freeze(), aggregation,
+                getUserName());
+    }
+
+    /**
+     * 
+     * @return true if attribute affects result of query - it is visible, used
+     *         in ORDER BY or GROUP BY clause or has condition.
+     */
+    public boolean isUsed()
+    {
+        return visible || orderBy || groupBy || condition != null;
+    }
+
+    /**
+     * Appends name used in SELECT clause - expression with alias.
+     * 
+     * @param aOut
+     *            output builder
+     * @param aTree
+     *            tree of views used in query.
+     * @return output builder.
+     */
+    public StringBuilder prepareQueryName(StringBuilder aOut, Tree aTree)
+    {
+        prepareExpression(aOut, aTree);
         if (getUserName() != null)
         {
-            builder.append(" as ").append(getUserName());
+            aOut.append(" as ").append(getUserName());
+        } else if (aggregation == null && aTree.isRenamed(this))
+        {
+            // keeps name of column, that would be read from its own view
+            aOut.append(" as ").append(getDbName());
         }
-        return builder;
+        return aOut;
     }
 
     /**
+     * Appends name of attribute used in ORDER BY clause.
      * 
-     * @param aViewAlias
-     *            alias of view this attribute is assigned to.
-     * @return name of attribute used in ORDER BY clause.
+     * @param aOut
+     *            output builder
+     * @param aTree
+     *            tree of views used in query.
+     * @return output builder.
      */
-    public StringBuilder prepareOrderByName(String aViewAlias)
+    public StringBuilder prepareOrderByName(StringBuilder aOut, Tree aTree)
     {
         if (getUserName() != null)
         {
-            return new StringBuilder(getUserName());
+            return aOut.append(getUserName());
         } else
         {
-            return prepareName(aViewAlias);
+            return prepareExpression(aOut, aTree);
+        }
+    }
+
+    /**
+     * Appends name of attribute, with aggregation function if it is defined.
+     * 
+     * @param aOut
+     *            output builder
+     * @param aTree
+     *            tree of views used in query.
+     * @return output builder.
+     */
+    public StringBuilder prepareExpression(StringBuilder aOut, Tree aTree)
+    {
+        if (aggregation == null)
+        {
+            return prepareName(aOut, aTree);
         }
+        aOut.append(aggregation.getName()).append(
+                aggregation.isDistinct() ? "(DISTINCT " : "(");
+        return prepareName(aOut, aTree).append(')');
     }
 
     /**
+     * Appends name of attribute prefixed with alias of its view.
      * 
-     * @param aViewAlias
-     *            alias of view this attribute is assigned to.
-     * @return name of attribute.
+     * @param aOut
+     *            output builder
+     * @param aTree
+     *            tree of views used in query.
+     * @return output builder.
      */
-    public StringBuilder prepareName(String aViewAlias)
+    public StringBuilder prepareName(StringBuilder aOut, Tree aTree)
     {
-        return new StringBuilder().append(aViewAlias).append(".")
-                .append(getDbName());
+        return aTree.prepareName(aOut, this);
     }
 
 }
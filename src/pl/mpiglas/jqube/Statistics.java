@@ -0,0 +1,129 @@
+/*
+ * Select query builder
+ * Copyright (C) 2014  Milosz Piglas [milosz@archeocs.com]
+ *    
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package pl.mpiglas.jqube;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Immutable snapshot of statistics registered in schema (see
+ * {@link Schema#getStatistics()}). View takes snapshot when it is built, so
+ * order of joins of all its variants is chosen from the same numbers.
+ * 
+ */
+public final class Statistics
+{
+    /**
+     * Number of rows of view without statistics.
+     */
+    public static final long DEFAULT_ROW_COUNT = 1000;
+    /**
+     * Fraction of rows of view, which match condition of attribute without
+     * statistics.
+     */
+    public static final double DEFAULT_SELECTIVITY = 0.1;
+
+    private final Map<View, Long> rowCounts;
+    private final Map<View, Map<String, Double>> attributeSelectivities;
+    private final Map<ViewsRelation, Double> relationSelectivities;
+
+    Statistics(Map<View, Long> aRowCounts,
+            Map<View, Map<String, Double>> aAttributeSelectivities,
+            Map<ViewsRelation, Double> aRelationSelectivities)
+    {
+        rowCounts = new HashMap<View, Long>(aRowCounts);
+        attributeSelectivities = new HashMap<View, Map<String, Double>>();
+        for (Map.Entry<View, Map<String, Double>> e : aAttributeSelectivities
+                .entrySet())
+        {
+            attributeSelectivities.put(e.getKey(), new HashMap<String, Double>(
+                    e.getValue()));
+        }
+        relationSelectivities = new HashMap<ViewsRelation, Double>(
+                aRelationSelectivities);
+    }
+
+    /**
+     * @return true if no statistics are registered.
+     */
+    public boolean isEmpty()
+    {
+        return rowCounts.isEmpty() && attributeSelectivities.isEmpty()
+                && relationSelectivities.isEmpty();
+    }
+
+    /**
+     * @param aView
+     *            view
+     * @return registered number of rows, or {@link #DEFAULT_ROW_COUNT}.
+     */
+    public long getRowCount(View aView)
+    {
+        Long rows = rowCounts.get(aView);
+        return rows != null ? rows : DEFAULT_ROW_COUNT;
+    }
+
+    /**
+     * @param aAttribute
+     *            attribute of view
+     * @return registered selectivity of conditions of attribute, or
+     *         {@link #DEFAULT_SELECTIVITY}.
+     */
+    public double getSelectivity(Attribute aAttribute)
+    {
+        Map<String, Double> selectivities = attributeSelectivities
+                .get(aAttribute.getView());
+        Double selectivity = selectivities != null ? selectivities
+                .get(aAttribute.getDbName()) : null;
+        return selectivity != null ? selectivity : DEFAULT_SELECTIVITY;
+    }
+
+    /**
+     * Estimates selectivity of relation of two views.
+     * 
+     * @param aRelation
+     *            relation of views
+     * @param aView
+     *            view
+     * @param aOther
+     *            view
+     * @return registered selectivity, 1 / (rows of key view) for relation by
+     *         unique key, 1 / (rows of larger view) otherwise.
+     */
+    public double getSelectivity(ViewsRelation aRelation, View aView,
+            View aOther)
+    {
+        Double selectivity = relationSelectivities.get(aRelation);
+        if (selectivity != null)
+        {
+            return selectivity;
+        }
+        long rows;
+        if (aRelation.isKeyOf(aView))
+        {
+            rows = getRowCount(aView);
+        } else if (aRelation.isKeyOf(aOther))
+        {
+            rows = getRowCount(aOther);
+        } else
+        {
+            rows = Math.max(getRowCount(aView), getRowCount(aOther));
+        }
+        return 1.0 / Math.max(rows, 1);
+    }
+}
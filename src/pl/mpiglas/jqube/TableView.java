@@ -30,9 +30,10 @@ import java.util.Map;
 public class TableView implements View
 {
 
-    private String source;
-    private String name;
-    private Map<String, ViewAttribute> attributes;
+    private final String source;
+    private final String name;
+    private final int hash;
+    private final Map<String, ViewAttribute> attributes;
 
     /**
      * Constructor.
@@ -41,8 +42,13 @@ public class TableView implements View
      */
     public TableView(String aName, String aSource)
     {
+        if (aName == null || aSource == null)
+        {
+            throw new IllegalArgumentException("Null name or source");
+        }
         name = aName;
         source = aSource;
+        hash = 31 * aName.hashCode() + aSource.hashCode();
         attributes = new HashMap<String, ViewAttribute>();
     }
     
@@ -102,18 +108,19 @@ public class TableView implements View
         return new ArrayList<>(attributes.values());
     }
 
+    /**
+     * Hash code is calculated once from name and source of view, so it does
+     * not depend on number of attributes.
+     */
     @Override
     public int hashCode()
     {
-        final int prime = 31;
-        int result = 1;
-        result = prime * result
-                + ((attributes == null) ? 0 : attributes.hashCode());
-        result = prime * result + ((name == null) ? 0 : name.hashCode());
-        result = prime * result + ((source == null) ? 0 : source.hashCode());
-        return result;
+        return hash;
     }
 
+    /**
+     * Views are equal if they have the same name and source.
+     */
     @Override
     public boolean equals(Object obj)
     {
@@ -124,27 +131,8 @@ public class TableView implements View
         if (getClass() != obj.getClass())
             return false;
         TableView other = (TableView) obj;
-        if (attributes == null)
-        {
-            if (other.attributes != null)
-                return false;
-        } else if (!attributes.equals(other.attributes))
-            return false;
-        if (name == null)
-        {
-            if (other.name != null)
-                return false;
-        } else if (!name.equals(other.name))
-            return false;
-        if (source == null)
-        {
-            if (other.source != null)
-                return false;
-        } else if (!source.equals(other.source))
-            return false;
-        return true;
+        return hash == other.hash && name.equals(other.name)
+                && source.equals(other.source);
     }
-    
-    
 
 }
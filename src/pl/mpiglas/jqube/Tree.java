@@ -17,9 +17,16 @@
  */
 package pl.mpiglas.jqube;
 
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Deque;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
+import java.util.Set;
 
 /**
  * 
@@ -28,9 +35,13 @@ import java.util.Map;
  */
 public class Tree
 {
-    private Schema schema;
+    private final Schema schema;
     private Node root;
-    private Map<View, Node> viewNodes;
+    private final Map<View, Node> viewNodes;
+    private final Map<View, ViewsRelation> eliminated;
+    private final List<Node> semiJoins;
+    private final List<View> semiJoinParents;
+    private AliasGenerator aliases;
     private int index;
 
     /**
@@ -41,11 +52,17 @@ public class Tree
     {
         schema = aSchema;
         viewNodes = new HashMap<View, Node>();
+        eliminated = new HashMap<View, ViewsRelation>();
+        semiJoins = new ArrayList<Node>();
+        semiJoinParents = new ArrayList<View>();
+        aliases = new AliasGenerator();
         index = 0;
     }
 
     /**
-     * Add new view to tree. If root is already set, method tries to find related view in tree and add to it new leaf.
+     * Add new view to tree. If root is already set, method finds the shortest
+     * path in schema from given view to views already in tree and joins all
+     * views on that path, so intermediate views do not have to be added by hand.
      * @param aView view
      * @param aOuterJoin true, if views should be joined with 'OUTER JOIN'.
      */
@@ -53,42 +70,806 @@ public class Tree
     {
         if (root == null)
         {
-            root = new Node(
-                    new ViewAlias(aView, AliasGenerator.INSTANCE.next()), null,
-                    null);
+            root = new Node(new ViewAlias(aView, aliases.next()), null, null);
             viewNodes.put(aView, root);
         } else if (!viewNodes.containsKey(aView))
         {
             List<View> related = schema.getRelatedViews(aView);
-            for (View v : related)
+            for (int i = 0; i < related.size(); i++)
             {
+                View v = related.get(i);
                 if (viewNodes.containsKey(v))
                 {
-                    ViewsRelation relation = schema
-                            .getRelationOfViews(v, aView);
-                    Node nn = viewNodes.get(v)
-                            .addJoin(
-                                    new ViewAlias(aView,
-                                            AliasGenerator.INSTANCE.next()),
-                                    relation, aOuterJoin);
-                    viewNodes.put(aView, nn);
-                    index++;
+                    join(v, aView, aOuterJoin);
                     return;
                 }
             }
-            throw new IllegalArgumentException("No related views to "+aView.getName());
+            joinPath(aView, aOuterJoin);
         }
     }
+
+    private void join(View aParent, View aView, boolean aOuterJoin)
+    {
+        ViewsRelation relation = schema.getRelationOfViews(aParent, aView);
+        Node nn = viewNodes.get(aParent).addJoin(
+                new ViewAlias(aView, aliases.next()), relation, aOuterJoin);
+        viewNodes.put(aView, nn);
+        index++;
+    }
+
+    /**
+     * Searches schema breadth-first, starting from given view, until view
+     * already joined in tree is found. Then joins all views on found path.
+     */
+    private void joinPath(View aView, boolean aOuterJoin)
+    {
+        Map<View, View> previous = new HashMap<View, View>();
+        Deque<View> queue = new ArrayDeque<View>();
+        previous.put(aView, null);
+        queue.add(aView);
+        while (!queue.isEmpty())
+        {
+            View current = queue.poll();
+            List<View> related = schema.getRelatedViews(current);
+            for (int i = 0; i < related.size(); i++)
+            {
+                View v = related.get(i);
+                if (previous.containsKey(v))
+                {
+                    continue;
+                }
+                if (viewNodes.containsKey(v))
+                {
+                    View parent = v;
+                    for (View step = current; step != null; step = previous
+                            .get(step))
+                    {
+                        join(parent, step, aOuterJoin);
+                        parent = step;
+                    }
+                    return;
+                }
+                previous.put(v, current);
+                queue.add(v);
+            }
+        }
+        throw new IllegalArgumentException("No related views to "
+                + aView.getName());
+    }
     
     /**
-     * Prepare full FROM clause.
-     * @return prepared string
+     * Appends full FROM clause.
+     * @param aOut output builder
+     * @return output builder
+     */
+    public StringBuilder prepareString(StringBuilder aOut)
+    {
+        return root.prepareString(aOut, this, null, null);
+    }
+
+    /**
+     * Appends full FROM clause, nested query views are written with
+     * conditions moved into them or by name.
+     * 
+     * @param aOut
+     *            output builder
+     * @param aSources
+     *            sources of nested query views, possibly null.
+     * @return output builder
+     */
+    StringBuilder prepareString(StringBuilder aOut, NestedSources aSources)
+    {
+        return root.prepareString(aOut, this, null, aSources);
+    }
+
+    /**
+     * Checks if condition of attribute might be moved into its view - the
+     * view is nested query joined as derived table, and neither it nor any
+     * view between it and root is outer joined.
+     * 
+     * @param aAttribute
+     *            attribute used in query
+     * @return true if view of attribute might filter its own rows.
+     */
+    public boolean isFilterable(Attribute aAttribute)
+    {
+        Node node = viewNodes.get(aAttribute.getView());
+        return aAttribute.getView() instanceof QueryView && node != null
+                && node.getInline() == null && isInnerJoined(root, node);
+    }
+
+    private boolean isInnerJoined(Node aFrom, Node aNode)
+    {
+        if (aFrom == aNode)
+        {
+            return true;
+        }
+        for (Node ch : aFrom.getChildren())
+        {
+            if (!ch.isOuterJoin() && isInnerJoined(ch, aNode))
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    Node getRoot()
+    {
+        return root;
+    }
+
+    /**
+     * Inlines nested query views, which might be flattened (see
+     * {@link QueryView#isFlattenable()}). Views and joins of nested query
+     * are written directly in FROM clause of this tree, with new aliases, and
+     * names of nested query's attributes are replaced with their columns. View
+     * is not inlined, if it is outer joined and has many views, or if its
+     * relation to parent uses columns of other nested views than the first
+     * one - such view stays a derived table.
      */
-    public StringBuilder prepareString()
+    public void flattenViews()
     {
-        return root.prepareString(null);
+        if (root != null)
+        {
+            flattenViews(root, null);
+        }
     }
+
+    private void flattenViews(Node aNode, View aParent)
+    {
+        View view = aNode.getViewAlias().getView();
+        if (view instanceof QueryView && ((QueryView) view).isFlattenable())
+        {
+            Tree nested = ((QueryView) view).getTree();
+            if (!aNode.isOuterJoin() || nested.isSingle())
+            {
+                aNode.setInline(nested.copy(aliases));
+                if (!isHeadRelation(aNode, aParent))
+                {
+                    aNode.setInline(null);
+                }
+            }
+        }
+        for (Node ch : aNode.getChildren())
+        {
+            flattenViews(ch, view);
+        }
+    }
+
+    /**
+     * Checks if relation of inlined node to its parent uses only columns of
+     * the first view of inlined tree - other views are joined later, so they
+     * might not be used in ON clause.
+     */
+    private boolean isHeadRelation(Node aNode, View aParent)
+    {
+        if (aNode.getRelation() == null)
+        {
+            return true;
+        }
+        Node head = aNode.getHead();
+        for (AttributesPair p : aNode.getRelation().getAttributesPairs())
+        {
+            Attribute a = p.getRelatedAttribute(aParent);
+            if (((QueryView) a.getView()).getSelectAttribute(a.getDbName()) == null
+                    || getNameNode(a) != head)
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean isSingle()
+    {
+        return root.getChildren().isEmpty()
+                && (root.getInline() == null || root.getInline().isSingle());
+    }
+
     
+    /**
+     * Removes joins, that do not affect result of query. Leaf view is removed
+     * if its relation to parent view is defined by unique key of leaf view and
+     * <ul>
+     * <li>none of its attributes is used and view is outer joined or relation is
+     * mandatory,</li>
+     * <li>or only attributes defining relation are used and relation is
+     * mandatory - such attributes are replaced with related attributes of
+     * parent view.</li>
+     * </ul>
+     * Tree might be pruned again with subset of attributes - attributes of
+     * views eliminated before are assigned to their parents.
+     * @param aAttributes attributes of query.
+     */
+    public void eliminateJoins(List<SelectAttribute> aAttributes)
+    {
+        if (root == null)
+        {
+            return;
+        }
+        Map<View, Set<String>> used = new HashMap<View, Set<String>>();
+        for (int i = 0; i < aAttributes.size(); i++)
+        {
+            SelectAttribute a = aAttributes.get(i);
+            if (a.isUsed())
+            {
+                Attribute resolved = resolveEliminated(a);
+                usedNames(used, resolved.getView()).add(resolved.getDbName());
+            }
+        }
+        while (eliminateLeaves(root, used))
+        {
+        }
+    }
+
+    /**
+     * Chooses root and order of joins, which minimize estimated number of rows
+     * of intermediate results. Estimates are based on given statistics, so
+     * order of tree is not changed if there are no statistics. Root might
+     * be any view inner joined (directly or through other inner joins) with
+     * current root, so outer joins keep their preserved side. Joins of each
+     * view are ordered by number of rows, that they multiply intermediate
+     * result by - the most selective first.
+     * @param aConditions attributes of query with conditions.
+     * @param aStatistics snapshot of statistics of schema.
+     */
+    public void orderJoins(List<SelectAttribute> aConditions,
+            Statistics aStatistics)
+    {
+        if (root == null || aStatistics.isEmpty())
+        {
+            return;
+        }
+        Map<View, Double> filters = new HashMap<View, Double>();
+        for (int i = 0; i < aConditions.size(); i++)
+        {
+            SelectAttribute a = aConditions.get(i);
+            if (a.getCondition() == null || a.getAggregation() != null)
+            {
+                continue;
+            }
+            Attribute resolved = resolveEliminated(a);
+            Double filter = filters.get(resolved.getView());
+            filters.put(resolved.getView(), (filter != null ? filter : 1.0)
+                    * aStatistics.getSelectivity(resolved));
+        }
+        Map<Node, Node> parents = new HashMap<Node, Node>();
+        List<Node> candidates = new ArrayList<Node>();
+        collectRoots(root, parents, candidates);
+        Node best = null;
+        double bestCost = 0;
+        for (Node candidate : candidates)
+        {
+            Node nn = reroot(candidate, null, null, false, parents);
+            double[] rows = { getRows(nn, filters, aStatistics) };
+            double cost = rows[0] + orderJoins(nn, rows, filters, aStatistics);
+            if (best == null || cost < bestCost)
+            {
+                best = nn;
+                bestCost = cost;
+            }
+        }
+        setRoot(best);
+    }
+
+    private void setRoot(Node aRoot)
+    {
+        root = aRoot;
+        viewNodes.clear();
+        register(root);
+        for (Node node : semiJoins)
+        {
+            register(node);
+        }
+    }
+
+    private void collectRoots(Node aNode, Map<Node, Node> aParents,
+            List<Node> aRoots)
+    {
+        aRoots.add(aNode);
+        for (Node ch : aNode.getChildren())
+        {
+            aParents.put(ch, aNode);
+            if (ch.isOuterJoin())
+            {
+                collectParents(ch, aParents);
+            } else
+            {
+                collectRoots(ch, aParents, aRoots);
+            }
+        }
+    }
+
+    private void collectParents(Node aNode, Map<Node, Node> aParents)
+    {
+        for (Node ch : aNode.getChildren())
+        {
+            aParents.put(ch, aNode);
+            collectParents(ch, aParents);
+        }
+    }
+
+    /**
+     * Copies nodes connected with given one, so it becomes root. Relations on
+     * path from current root are reversed - all of them are inner joins.
+     */
+    private Node reroot(Node aNode, Node aFrom, ViewsRelation aRelation,
+            boolean aOuterJoin, Map<Node, Node> aParents)
+    {
+        Node nn = aNode.copyAs(aRelation, aOuterJoin);
+        for (Node ch : aNode.getChildren())
+        {
+            if (ch != aFrom)
+            {
+                nn.addJoin(reroot(ch, aNode, ch.getRelation(),
+                        ch.isOuterJoin(), aParents));
+            }
+        }
+        Node parent = aParents.get(aNode);
+        if (parent != null && parent != aFrom)
+        {
+            nn.addJoin(reroot(parent, aNode, aNode.getRelation(), false,
+                    aParents));
+        }
+        return nn;
+    }
+
+    /**
+     * Sorts joins of node and its children.
+     * @param aRows estimated number of rows of intermediate result, updated
+     *            after each join.
+     * @return sum of estimated numbers of rows after each join.
+     */
+    private double orderJoins(Node aNode, double[] aRows,
+            Map<View, Double> aFilters, Statistics aStatistics)
+    {
+        final View view = aNode.getViewAlias().getView();
+        final Map<View, Double> filters = aFilters;
+        final Statistics statistics = aStatistics;
+        aNode.sortJoins(new Comparator<Node>()
+        {
+            @Override
+            public int compare(Node aFirst, Node aSecond)
+            {
+                return Double.compare(
+                        getFactor(view, aFirst, filters, statistics),
+                        getFactor(view, aSecond, filters, statistics));
+            }
+        });
+        double cost = 0;
+        for (Node ch : aNode.getChildren())
+        {
+            aRows[0] *= getJoinFactor(view, ch, aFilters, aStatistics);
+            cost += aRows[0] + orderJoins(ch, aRows, aFilters, aStatistics);
+        }
+        return cost;
+    }
+
+    /**
+     * @return estimated number of rows of view, that match conditions.
+     */
+    private double getRows(Node aNode, Map<View, Double> aFilters,
+            Statistics aStatistics)
+    {
+        View view = aNode.getViewAlias().getView();
+        Double filter = aFilters.get(view);
+        return aStatistics.getRowCount(view) * (filter != null ? filter : 1.0);
+    }
+
+    /**
+     * @return estimated number of rows of node's view related to single row
+     *         of parent (at least 1 for outer join).
+     */
+    private double getJoinFactor(View aParent, Node aNode,
+            Map<View, Double> aFilters, Statistics aStatistics)
+    {
+        double factor = getRows(aNode, aFilters, aStatistics)
+                * aStatistics.getSelectivity(aNode.getRelation(), aParent,
+                        aNode.getViewAlias().getView());
+        return aNode.isOuterJoin() ? Math.max(factor, 1) : factor;
+    }
+
+    /**
+     * @return estimated factor of intermediate result after join of node and
+     *         all its children.
+     */
+    private double getFactor(View aParent, Node aNode,
+            Map<View, Double> aFilters, Statistics aStatistics)
+    {
+        double factor = getJoinFactor(aParent, aNode, aFilters, aStatistics);
+        for (Node ch : aNode.getChildren())
+        {
+            factor *= getFactor(aNode.getViewAlias().getView(), ch, aFilters,
+                    aStatistics);
+        }
+        return factor;
+    }
+
+    /**
+     * Replaces joins of views, which only filter rows of query, with
+     * semi-joins. Subtree is semi-joined if it is inner joined and none of
+     * its views has attribute, which is visible, grouped, ordered or
+     * aggregated - whether its conditions are used or not, so every variant of
+     * query has the same rows. If root has no such attribute, tree is first
+     * rerooted onto the nearest inner joined view, which has. Semi-joined
+     * subtree is removed from FROM clause and written as EXISTS subquery (see
+     * {@link #prepareSemiJoin(StringBuilder, int)}), so rows of query are not
+     * multiplied by related rows.
+     * @param aAttributes attributes of query.
+     */
+    public void semiJoinFilters(List<SelectAttribute> aAttributes)
+    {
+        if (root == null)
+        {
+            return;
+        }
+        Set<View> output = getOutputViews(aAttributes);
+        if (output.isEmpty())
+        {
+            return;
+        }
+        if (!output.contains(root.getViewAlias().getView()))
+        {
+            Map<Node, Node> parents = new HashMap<Node, Node>();
+            List<Node> candidates = new ArrayList<Node>();
+            collectRoots(root, parents, candidates);
+            for (Node candidate : candidates)
+            {
+                if (output.contains(candidate.getViewAlias().getView()))
+                {
+                    setRoot(reroot(candidate, null, null, false, parents));
+                    keepHeadRelations(root, null);
+                    break;
+                }
+            }
+        }
+        semiJoinFilters(root, output);
+    }
+
+    /**
+     * @param aAttributes attributes of query.
+     * @return true if {@link #semiJoinFilters(List)} might change this tree.
+     */
+    public boolean isSemiJoinable(List<SelectAttribute> aAttributes)
+    {
+        if (root == null)
+        {
+            return false;
+        }
+        Set<View> output = getOutputViews(aAttributes);
+        return !output.isEmpty()
+                && (!output.contains(root.getViewAlias().getView())
+                || hasFilterJoin(root, output));
+    }
+
+    private Set<View> getOutputViews(List<SelectAttribute> aAttributes)
+    {
+        Set<View> output = new HashSet<View>();
+        for (int i = 0; i < aAttributes.size(); i++)
+        {
+            SelectAttribute a = aAttributes.get(i);
+            if (a.isVisible() || a.isOrderBy() || a.isGroupBy()
+                    || (a.isUsed() && a.getAggregation() != null))
+            {
+                output.add(resolveEliminated(a).getView());
+            }
+        }
+        return output;
+    }
+
+    private boolean hasFilterJoin(Node aNode, Set<View> aOutput)
+    {
+        for (Node ch : aNode.getChildren())
+        {
+            if ((!ch.isOuterJoin() && !containsAny(ch, aOutput))
+                    || hasFilterJoin(ch, aOutput))
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Relations reversed by rerooting might use other columns of inlined
+     * views than the first view - such views are joined as derived tables.
+     */
+    private void keepHeadRelations(Node aNode, View aParent)
+    {
+        if (aNode.getInline() != null && !isHeadRelation(aNode, aParent))
+        {
+            aNode.setInline(null);
+        }
+        for (Node ch : aNode.getChildren())
+        {
+            keepHeadRelations(ch, aNode.getViewAlias().getView());
+        }
+    }
+
+    private void semiJoinFilters(Node aNode, Set<View> aOutput)
+    {
+        for (Node ch : new ArrayList<Node>(aNode.getChildren()))
+        {
+            if (!ch.isOuterJoin() && !containsAny(ch, aOutput))
+            {
+                aNode.removeJoin(ch);
+                semiJoins.add(ch);
+                semiJoinParents.add(aNode.getViewAlias().getView());
+            } else
+            {
+                semiJoinFilters(ch, aOutput);
+            }
+        }
+    }
+
+    private boolean containsAny(Node aNode, Set<View> aViews)
+    {
+        if (aViews.contains(aNode.getViewAlias().getView()))
+        {
+            return true;
+        }
+        for (Node ch : aNode.getChildren())
+        {
+            if (containsAny(ch, aViews))
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @param aViews
+     *            output list, query views joined as derived tables in this
+     *            tree (also in its semi-joins and inlined trees) are added to
+     *            it - once for each join.
+     * @param aNames
+     *            output set, aliases and sources of other views (in lower
+     *            case) are added to it.
+     */
+    void collectNestedViews(List<QueryView> aViews, Set<String> aNames)
+    {
+        if (root != null)
+        {
+            collectNestedViews(root, aViews, aNames);
+        }
+        for (Node node : semiJoins)
+        {
+            collectNestedViews(node, aViews, aNames);
+        }
+    }
+
+    private void collectNestedViews(Node aNode, List<QueryView> aViews,
+            Set<String> aNames)
+    {
+        View view = aNode.getViewAlias().getView();
+        if (aNode.getInline() != null)
+        {
+            aNode.getInline().collectNestedViews(aViews, aNames);
+        } else if (view instanceof QueryView)
+        {
+            aViews.add((QueryView) view);
+        } else
+        {
+            aNames.add(view.getSource().toLowerCase(Locale.ROOT));
+        }
+        aNames.add(aNode.getViewAlias().getAlias().toLowerCase(Locale.ROOT));
+        for (Node ch : aNode.getChildren())
+        {
+            collectNestedViews(ch, aViews, aNames);
+        }
+    }
+
+    /**
+     * @return number of semi-joined subtrees.
+     */
+    public int getSemiJoinCount()
+    {
+        return semiJoins.size();
+    }
+
+    /**
+     * @param aAttribute
+     *            attribute of view in tree
+     * @return index of semi-join, which contains view of attribute, or -1 if
+     *         view is joined in FROM clause.
+     */
+    public int getSemiJoin(Attribute aAttribute)
+    {
+        Node node = viewNodes.get(resolveEliminated(aAttribute).getView());
+        for (int i = 0; i < semiJoins.size(); i++)
+        {
+            if (contains(semiJoins.get(i), node))
+            {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private boolean contains(Node aFrom, Node aNode)
+    {
+        if (aFrom == aNode)
+        {
+            return true;
+        }
+        for (Node ch : aFrom.getChildren())
+        {
+            if (contains(ch, aNode))
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Appends EXISTS subquery of semi-join up to its relation with parent
+     * view: 'EXISTS (SELECT 1 FROM ... WHERE parent.a = view.b'. Conditions of
+     * semi-joined views and closing parenthesis are appended by query.
+     * @param aOut output builder
+     * @param aIndex index of semi-join
+     * @return output builder
+     */
+    public StringBuilder prepareSemiJoin(StringBuilder aOut, int aIndex)
+    {
+        return prepareSemiJoin(aOut, aIndex, null);
+    }
+
+    /**
+     * @see #prepareSemiJoin(StringBuilder, int)
+     * @param aSources
+     *            sources of nested query views of statement, possibly null.
+     */
+    StringBuilder prepareSemiJoin(StringBuilder aOut, int aIndex,
+            NestedSources aSources)
+    {
+        Node node = semiJoins.get(aIndex);
+        aOut.append("EXISTS (SELECT 1 FROM\n");
+        node.prepareFrom(aOut, this,
+                aSources != null ? aSources.getNested() : null).append(
+                "\n WHERE ");
+        return node.getRelation().prepareString(aOut, this,
+                semiJoinParents.get(aIndex), node.getViewAlias().getView());
+    }
+
+    private Set<String> usedNames(Map<View, Set<String>> aUsed, View aView)
+    {
+        Set<String> names = aUsed.get(aView);
+        if (names == null)
+        {
+            names = new HashSet<String>();
+            aUsed.put(aView, names);
+        }
+        return names;
+    }
+
+    private boolean eliminateLeaves(Node aNode, Map<View, Set<String>> aUsed)
+    {
+        boolean removed = false;
+        View parent = aNode.getViewAlias().getView();
+        for (Node ch : new ArrayList<Node>(aNode.getChildren()))
+        {
+            if (!ch.getChildren().isEmpty())
+            {
+                removed |= eliminateLeaves(ch, aUsed);
+                continue;
+            }
+            View view = ch.getViewAlias().getView();
+            ViewsRelation relation = ch.getRelation();
+            Set<String> names = aUsed.get(view);
+            if (!relation.isKeyOf(view) || !canEliminate(ch, names))
+            {
+                continue;
+            }
+            if (names != null)
+            {
+                Set<String> parentNames = usedNames(aUsed, parent);
+                for (String n : names)
+                {
+                    parentNames.add(relation.getRelatedAttribute(view, n)
+                            .getDbName());
+                }
+            }
+            aNode.removeJoin(ch);
+            viewNodes.remove(view);
+            eliminated.put(view, relation);
+            index--;
+            removed = true;
+        }
+        return removed;
+    }
+
+    private boolean canEliminate(Node aLeaf, Set<String> aUsedNames)
+    {
+        ViewsRelation relation = aLeaf.getRelation();
+        if (aUsedNames == null || aUsedNames.isEmpty())
+        {
+            return relation.isMandatory() || aLeaf.isOuterJoin();
+        }
+        View view = aLeaf.getViewAlias().getView();
+        for (String n : aUsedNames)
+        {
+            if (relation.getRelatedAttribute(view, n) == null)
+            {
+                return false;
+            }
+        }
+        return relation.isMandatory();
+    }
+
+    /**
+     * Appends name of attribute prefixed with alias of its view. If view of
+     * attribute was eliminated from tree, related attribute of parent view is
+     * used.
+     * @param aOut output builder
+     * @param aAttribute attribute
+     * @return output builder
+     */
+    public StringBuilder prepareName(StringBuilder aOut, Attribute aAttribute)
+    {
+        Attribute resolved = resolveEliminated(aAttribute);
+        Node node = viewNodes.get(resolved.getView());
+        if (node.getInline() != null)
+        {
+            return node.getInline().prepareName(aOut,
+                    ((QueryView) resolved.getView())
+                            .getSelectAttribute(resolved.getDbName()));
+        }
+        return aOut.append(node.getViewAlias().getAlias()).append('.')
+                .append(resolved.getDbName());
+    }
+
+    /**
+     * @param aAttribute
+     *            attribute of view in tree
+     * @return true if column of other view is written in place of attribute
+     *         - view of attribute was eliminated or is flattened into this
+     *         tree.
+     */
+    public boolean isRenamed(Attribute aAttribute)
+    {
+        Attribute resolved = resolveEliminated(aAttribute);
+        return resolved.getView() != aAttribute.getView()
+                || viewNodes.get(resolved.getView()).getInline() != null;
+    }
+
+    /**
+     * @return node, whose alias is used in name of attribute.
+     */
+    private Node getNameNode(Attribute aAttribute)
+    {
+        Attribute resolved = resolveEliminated(aAttribute);
+        Node node = viewNodes.get(resolved.getView());
+        if (node.getInline() != null)
+        {
+            return node.getInline().getNameNode(
+                    ((QueryView) resolved.getView())
+                            .getSelectAttribute(resolved.getDbName()));
+        }
+        return node;
+    }
+
+    /**
+     * Relations of eliminated views are kept in tree, so names are resolved
+     * without reading schema, which might be modified while views render.
+     * @return attribute of view in tree, which replaces given one if its view
+     *         was eliminated.
+     */
+    private Attribute resolveEliminated(Attribute aAttribute)
+    {
+        Attribute attribute = aAttribute;
+        ViewsRelation relation = eliminated.get(attribute.getView());
+        while (relation != null)
+        {
+            attribute = relation.getRelatedAttribute(attribute.getView(),
+                    attribute.getDbName());
+            relation = eliminated.get(attribute.getView());
+        }
+        return attribute;
+    }
+
     /**
      * 
      * @param aView view
@@ -99,6 +880,72 @@ public class Tree
         return viewNodes.get(aView).getViewAlias().getAlias();
     }
     
+    /**
+     * Copies tree, so it might be modified without affecting this one.
+     * @return deep copy of this tree.
+     */
+    public Tree copy()
+    {
+        Tree copy = new Tree(schema);
+        copy.aliases = new AliasGenerator(aliases);
+        copy.index = index;
+        copy.eliminated.putAll(eliminated);
+        if (root != null)
+        {
+            copy.root = root.copy();
+            copy.register(copy.root);
+        }
+        for (int i = 0; i < semiJoins.size(); i++)
+        {
+            Node node = semiJoins.get(i).copy();
+            copy.semiJoins.add(node);
+            copy.semiJoinParents.add(semiJoinParents.get(i));
+            copy.register(node);
+        }
+        return copy;
+    }
+
+    /**
+     * Copies tree with new aliases, so it might be inlined in other tree.
+     * @param aAliases generator of aliases of other tree.
+     * @return deep copy of this tree.
+     */
+    Tree copy(AliasGenerator aAliases)
+    {
+        Tree copy = new Tree(schema);
+        copy.aliases = aAliases;
+        copy.index = index;
+        copy.eliminated.putAll(eliminated);
+        copy.root = root.copy(aAliases);
+        copy.register(copy.root);
+        return copy;
+    }
+
+    private void register(Node aNode)
+    {
+        viewNodes.put(aNode.getViewAlias().getView(), aNode);
+        for (Node ch : aNode.getChildren())
+        {
+            register(ch);
+        }
+    }
+
+    /**
+     * @return snapshot of statistics of schema.
+     */
+    Statistics getStatistics()
+    {
+        return schema.getStatistics();
+    }
+
+    /**
+     * @return dialect of schema, or null if it is not known.
+     */
+    Dialect getDialect()
+    {
+        return schema.getDialect();
+    }
+
     public int getIndex()
     {
         return index;
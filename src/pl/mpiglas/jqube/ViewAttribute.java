@@ -31,24 +31,111 @@ public class ViewAttribute implements Attribute
 {
 
     /**
-     * Aggregation functions enum.
+     * Aggregation functions enum - standard SQL aggregates computed by
+     * database.
      *
      */
     public static enum Aggregation
     {
-        COUNT("COUNT");
+        COUNT("COUNT", false), COUNT_DISTINCT("COUNT", true), SUM("SUM",
+                false), AVG("AVG", false), MIN("MIN", false), MAX("MAX",
+                false), STDDEV_POP("STDDEV_POP", false), STDDEV_SAMP(
+                "STDDEV_SAMP", false), VAR_POP("VAR_POP", false), VAR_SAMP(
+                "VAR_SAMP", false);
 
-        private String name;
+        private final String name;
+        private final boolean distinct;
 
-        Aggregation(String aName)
+        Aggregation(String aName, boolean aDistinct)
         {
             name = aName;
+            distinct = aDistinct;
         }
 
         public String getName()
         {
             return name;
         }
+
+        /**
+         * @return true if function is applied to distinct values.
+         */
+        public boolean isDistinct()
+        {
+            return distinct;
+        }
+
+        /**
+         * Infers type of function's result: COUNT is BIGINT, MIN and MAX keep
+         * type of argument, SUM of small integers is BIGINT, other numeric
+         * results are NUMERIC for exact and DOUBLE for approximate
+         * arguments.
+         * 
+         * @param aSqlType
+         *            type of aggregated attribute
+         * @return type of result, one of values from {@link Types}.
+         * @throws IllegalArgumentException
+         *             if function might not be applied to values of given
+         *             type.
+         */
+        public int getResultType(int aSqlType)
+        {
+            if (this == COUNT || this == COUNT_DISTINCT)
+            {
+                return Types.BIGINT;
+            } else if (this == MIN || this == MAX)
+            {
+                if (!isComparable(aSqlType))
+                {
+                    throw new IllegalArgumentException(name
+                            + " of not comparable type " + aSqlType);
+                }
+                return aSqlType;
+            } else if (this == SUM
+                    && (aSqlType == Types.TINYINT
+                            || aSqlType == Types.SMALLINT || aSqlType == Types.INTEGER))
+            {
+                return Types.BIGINT;
+            }
+            switch (aSqlType)
+            {
+            case Types.TINYINT:
+            case Types.SMALLINT:
+            case Types.INTEGER:
+            case Types.BIGINT:
+            case Types.DECIMAL:
+            case Types.NUMERIC:
+                return Types.NUMERIC;
+            case Types.REAL:
+            case Types.FLOAT:
+            case Types.DOUBLE:
+                return Types.DOUBLE;
+            default:
+                throw new IllegalArgumentException(name
+                        + " of not numeric type " + aSqlType);
+            }
+        }
+
+        private static boolean isComparable(int aSqlType)
+        {
+            switch (aSqlType)
+            {
+            case Types.BLOB:
+            case Types.CLOB:
+            case Types.NCLOB:
+            case Types.ARRAY:
+            case Types.STRUCT:
+            case Types.REF:
+            case Types.JAVA_OBJECT:
+            case Types.SQLXML:
+            case Types.DATALINK:
+            case Types.NULL:
+            case Types.OTHER:
+                return false;
+            default:
+                return true;
+            }
+        }
     }
 
     /**
@@ -64,6 +151,10 @@ public class ViewAttribute implements Attribute
         private boolean visible = true;
         private Aggregation aggregation;
         private String aliasName;
+        private final String dbName;
+        private final View view;
+        private final String userName;
+        private final int sqlType;
 
         /**
          * Constructor.
@@ -157,10 +248,11 @@ public class ViewAttribute implements Attribute
         }
     }
 
-    private String userName;
-    private View view;
-    private String dbName;
-    private int sqlType;
+    private final String userName;
+    private final View view;
+    private final String dbName;
+    private final int sqlType;
+    private final int hash;
 
     /**
      * Constructor.
@@ -176,6 +268,7 @@ public class ViewAttribute implements Attribute
         view = aView;
         userName = aUserName;
         sqlType = aSqlType;
+        hash = 31 * aView.hashCode() + aDbName.hashCode();
     }
 
     @Override
@@ -213,6 +306,33 @@ public class ViewAttribute implements Attribute
         return new SelectAttributeBuilder(dbName, view, userName, sqlType);
     }
 
+    /**
+     * Hash code is calculated once from view and database name.
+     */
+    @Override
+    public int hashCode()
+    {
+        return hash;
+    }
+
+    /**
+     * Attributes are equal if they have the same database name and belong to
+     * the same view.
+     */
+    @Override
+    public boolean equals(Object obj)
+    {
+        if (this == obj)
+            return true;
+        if (obj == null)
+            return false;
+        if (getClass() != obj.getClass())
+            return false;
+        ViewAttribute other = (ViewAttribute) obj;
+        return hash == other.hash && dbName.equals(other.dbName)
+                && view.equals(other.view);
+    }
+
     @Override
     public String toString()
     {
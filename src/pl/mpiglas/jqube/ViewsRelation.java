@@ -17,6 +17,8 @@
  */
 package pl.mpiglas.jqube;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 /**
@@ -25,7 +27,9 @@ import java.util.List;
  */
 public class ViewsRelation
 {
-    private List<AttributesPair> attrPairs;
+    private final List<AttributesPair> attrPairs;
+    private final View keyView;
+    private final boolean mandatory;
 
     /**
      * Inits relation. Each pair of views migth have common one or more attributes.
@@ -33,27 +37,98 @@ public class ViewsRelation
      */
     public ViewsRelation(List<AttributesPair> aPairs)
     {
-        attrPairs = aPairs;
+        this(aPairs, null, false);
     }
 
     /**
-     * Prepares string for query, which represents relation between two views.
-     * @param aAlias view's alias
-     * @param aAlias2 view's alias
-     * @return prepared string
+     * Inits relation, where attributes of one view are its unique key. Such
+     * relation allows to eliminate joins, that do not affect result of query.
+     * @param aPairs list of pairs of common attributes, that define relation between views.
+     * @param aKeyView view, whose attributes in pairs are its unique key (possibly null).
+     * @param aMandatory true, if every row of other view has related row in key view
+     *            (e.g. foreign key is not null).
+     */
+    public ViewsRelation(List<AttributesPair> aPairs, View aKeyView,
+            boolean aMandatory)
+    {
+        attrPairs = new ArrayList<AttributesPair>(aPairs);
+        keyView = aKeyView;
+        mandatory = aMandatory;
+    }
+
+    /**
+     * @return pairs of common attributes, that define relation.
+     */
+    public List<AttributesPair> getAttributesPairs()
+    {
+        return Collections.unmodifiableList(attrPairs);
+    }
+
+    /**
+     * 
+     * @param aView view
+     * @return true if attributes of given view are unique key in this relation.
+     */
+    public boolean isKeyOf(View aView)
+    {
+        return keyView != null && keyView.equals(aView);
+    }
+
+    /**
+     * 
+     * @return true if every row of other view has related row in key view.
      */
-    public StringBuilder prepareString(ViewAlias aAlias, ViewAlias aAlias2)
+    public boolean isMandatory()
     {
-        StringBuilder builder = new StringBuilder();
-        builder.append(attrPairs.get(0).prepareString(aAlias, aAlias2));
-        if (attrPairs.size() > 1)
+        return mandatory;
+    }
+
+    /**
+     * Finds attribute paired with given attribute of view.
+     * @param aView view
+     * @param aDbName database name of attribute from given view
+     * @return attribute of other view, or null if given attribute does not define relation.
+     */
+    public Attribute getRelatedAttribute(View aView, String aDbName)
+    {
+        for (int i = 0; i < attrPairs.size(); i++)
         {
-            for (int i = 1; i < attrPairs.size(); i++)
+            AttributesPair p = attrPairs.get(i);
+            if (isAttribute(p.getFirst(), aView, aDbName))
+            {
+                return p.getSecond();
+            } else if (isAttribute(p.getSecond(), aView, aDbName))
             {
-                builder.append(" AND ").append(attrPairs.get(i).prepareString(aAlias, aAlias2));
+                return p.getFirst();
             }
         }
-        return builder;
+        return null;
+    }
+
+    private boolean isAttribute(Attribute aAttribute, View aView, String aDbName)
+    {
+        return aAttribute.getView().equals(aView)
+                && aAttribute.getDbName().equals(aDbName);
+    }
+
+    /**
+     * Appends string for query, which represents relation between two views.
+     * @param aOut output builder
+     * @param aTree tree of views used in query
+     * @param aView view
+     * @param aView2 view
+     * @return output builder
+     */
+    public StringBuilder prepareString(StringBuilder aOut, Tree aTree,
+            View aView, View aView2)
+    {
+        attrPairs.get(0).prepareString(aOut, aTree, aView, aView2);
+        for (int i = 1; i < attrPairs.size(); i++)
+        {
+            aOut.append(" AND ");
+            attrPairs.get(i).prepareString(aOut, aTree, aView, aView2);
+        }
+        return aOut;
     }
     
     /**
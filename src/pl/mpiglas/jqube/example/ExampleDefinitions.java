@@ -0,0 +1,72 @@
+/*
+ * Select query builder
+ * Copyright (C) 2014  Milosz Piglas [milosz@archeocs.com]
+ *    
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package pl.mpiglas.jqube.example;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import pl.mpiglas.jqube.AttributesPair;
+import pl.mpiglas.jqube.Condition;
+import pl.mpiglas.jqube.Dialect;
+import pl.mpiglas.jqube.Query;
+import pl.mpiglas.jqube.QueryBuilder;
+import pl.mpiglas.jqube.QueryView;
+import pl.mpiglas.jqube.Schema;
+import pl.mpiglas.jqube.TableView;
+import pl.mpiglas.jqube.ViewsRelation;
+import pl.mpiglas.jqube.Condition.Function;
+import pl.mpiglas.jqube.Condition.Operator;
+import pl.mpiglas.jqube.precompile.QueryDefinitions;
+
+/**
+ * Queries of example precompiled at build time, see target 'precompile' of
+ * build-jqube.xml.
+ * 
+ */
+public class ExampleDefinitions implements QueryDefinitions
+{
+
+    @Override
+    public Map<String, Query> getQueries()
+    {
+        TableView books = JqubeExample.booksView();
+        TableView publishers = JqubeExample.publishersView();
+        Schema schema = new Schema();
+        schema.addView(books);
+        schema.addView(publishers, new ViewsRelation(
+                Arrays.asList(new AttributesPair(books
+                        .getAttribute("publisher"), publishers
+                        .getAttribute("id"))), publishers, true));
+
+        QueryBuilder builder = new QueryBuilder(schema);
+        builder.add(books.getAttribute("title").select().withOrderBy(true)
+                .build());
+        builder.add(books.getAttribute("author").select()
+                .withCondition(new Condition(Function.AND, Operator.EQ))
+                .build());
+        builder.add(publishers.getAttribute("name").select().build());
+        QueryView byAuthor = builder.createView("BooksByAuthor");
+
+        Map<String, Query> queries = new HashMap<>();
+        queries.put("booksByAuthor", byAuthor.getQuery());
+        queries.put("booksByAuthorPage",
+                byAuthor.getPageQuery(Dialect.LIMIT_OFFSET));
+        return queries;
+    }
+}
@@ -39,7 +39,7 @@ import pl.mpiglas.jqube.ViewAttribute.Aggregation;
 public class JqubeExample
 {
 
-    private static TableView booksView()
+    static TableView booksView()
     {
         TableView v = new TableView("Books", "BOOKS");
         v.addAttribute("title", null, Types.VARCHAR);
@@ -50,7 +50,7 @@ public class JqubeExample
         return v;
     }
 
-    private static TableView publishersView()
+    static TableView publishersView()
     {
         TableView v = new TableView("Publishers", "PUBLISHERS");
         v.addAttribute("id", null, Types.INTEGER);
@@ -78,20 +78,22 @@ public class JqubeExample
         TableView categories = enumView("Categories", "CATEGORIES",
                 "category_name");
 
-        // initialization of relations
+        // initialization of relations - id is unique key of publishers,
+        // categories and cities, every book has publisher
         ViewsRelation booksPublishers = new ViewsRelation(
                 Arrays.asList(new AttributesPair(books
                         .getAttribute("publisher"), publishers
-                        .getAttribute("id"))));
+                        .getAttribute("id"))), publishers, true);
 
         ViewsRelation booksCategories = new ViewsRelation(
                 Arrays.asList(new AttributesPair(
                         books.getAttribute("category"), categories
-                                .getAttribute("id"))));
+                                .getAttribute("id"))), categories, false);
 
         ViewsRelation publishersCities = new ViewsRelation(
                 Arrays.asList(new AttributesPair(publishers
-                        .getAttribute("city"), cities.getAttribute("id"))));
+                        .getAttribute("city"), cities.getAttribute("id"))),
+                cities, false);
 
         
         // initialization of schema
@@ -142,8 +144,19 @@ public class JqubeExample
         builder.add(subView.getAttribute("Authors").select().withCondition(new Condition(Function.OR, Operator.EQ)).build());
         builder.add(publishers.getAttribute("name").select().build(), true);
 
+        // categories with many books - hidden aggregated attribute is used
+        // only in HAVING clause
+        QueryBuilder havingBuilder = new QueryBuilder(schema);
+        havingBuilder.add(categories.getAttribute("category_name").select()
+                .withGroupBy(true).build());
+        havingBuilder.add(books.getAttribute("title").select()
+                .withAggregate(Aggregation.COUNT).withVisible(false)
+                .withCondition(new Condition(Function.AND, Operator.GT))
+                .build());
+
         Query subQuery = subView.getQuery();
         Query mainQuery = builder.build();
+        Query havingQuery = havingBuilder.build();
         
         System.out.println("SUB "+subQuery.getStatement());
         System.out.println(subQuery.getSelectAttributes());
@@ -153,6 +166,10 @@ public class JqubeExample
         System.out.println(mainQuery.getSelectAttributes());
         System.out.println(mainQuery.getParams());
         System.out.println("");
+        System.out.println("HAVING "+havingQuery.getStatement());
+        System.out.println(havingQuery.getSelectAttributes());
+        System.out.println(havingQuery.getParams());
+        System.out.println("");
     }
 
 }
@@ -0,0 +1,212 @@
+/*
+ * Select query builder
+ * Copyright (C) 2014  Milosz Piglas [milosz@archeocs.com]
+ *    
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package pl.mpiglas.jqube.jdbc;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import pl.mpiglas.jqube.Query;
+import pl.mpiglas.jqube.QueryView;
+
+/**
+ * Runs single query for many sets of parameters. If view is batchable (see
+ * {@link QueryView#isBatchable()}), sets are grouped and each group is read
+ * with one multi-key query, whose rows are assigned back to sets by values of
+ * key attributes. Otherwise query is executed once for each set, reusing the
+ * same prepared statement. Both ways handler receives rows with the same
+ * columns (see {@link BatchHandler}).
+ * 
+ */
+public class BatchExecutor
+{
+    private final QueryExecutor executor;
+    private final int batchSize;
+
+    /**
+     * Inits executor.
+     * 
+     * @param aExecutor
+     *            executor used to run queries.
+     * @param aBatchSize
+     *            number of parameters' sets read by single multi-key query.
+     *            The last group is padded, so all groups use the same
+     *            statement.
+     */
+    public BatchExecutor(QueryExecutor aExecutor, int aBatchSize)
+    {
+        if (aBatchSize < 1)
+        {
+            throw new IllegalArgumentException("Batch size must be positive");
+        }
+        executor = aExecutor;
+        batchSize = aBatchSize;
+    }
+
+    /**
+     * Executes query of view for all sets of parameters.
+     * 
+     * @param aView
+     *            query view
+     * @param aTuples
+     *            sets of parameters, each with one value for every slot of
+     *            view's query.
+     * @param aHandler
+     *            receives rows with index of their set.
+     * @throws SQLException
+     *             if query failed, or database returned row of batch query
+     *             with keys different from all sets of parameters.
+     */
+    public void execute(QueryView aView, Iterable<Object[]> aTuples,
+            BatchHandler aHandler) throws SQLException
+    {
+        if (!aView.isBatchable())
+        {
+            execute(aView.getQuery(), aTuples, aHandler);
+            return;
+        }
+        Query batch = aView.getBatchQuery(batchSize);
+        int keys = aView.getQuery().getParamLayout().size();
+        // keys follow visible columns, in order of slots
+        int[] columns = new int[keys];
+        for (int k = 0; k < keys; k++)
+        {
+            columns[k] = batch.getSelectAttributes().size() + k + 1;
+        }
+        List<Object[]> group = new ArrayList<>(batchSize);
+        int first = 0;
+        for (Object[] t : aTuples)
+        {
+            if (t.length != keys)
+            {
+                throw new IllegalArgumentException("Expected " + keys
+                        + " values, got " + t.length);
+            }
+            group.add(t);
+            if (group.size() == batchSize)
+            {
+                executeGroup(batch, columns, group, first, aHandler);
+                first += group.size();
+                group.clear();
+            }
+        }
+        if (!group.isEmpty())
+        {
+            executeGroup(batch, columns, group, first, aHandler);
+        }
+    }
+
+    /**
+     * Executes query once for each set of parameters.
+     * 
+     * @param aQuery
+     *            query
+     * @param aTuples
+     *            sets of parameters, each with one value for every slot.
+     * @param aHandler
+     *            receives rows with index of their set.
+     * @throws SQLException
+     *             if query failed.
+     */
+    public void execute(Query aQuery, Iterable<Object[]> aTuples,
+            BatchHandler aHandler) throws SQLException
+    {
+        int tuple = 0;
+        for (Object[] t : aTuples)
+        {
+            try (ResultSet rs = executor.execute(aQuery, t))
+            {
+                while (rs.next())
+                {
+                    aHandler.row(tuple, rs);
+                }
+            }
+            tuple++;
+        }
+    }
+
+    private void executeGroup(Query aBatch, int[] aColumns,
+            List<Object[]> aGroup, int aFirst, BatchHandler aHandler)
+            throws SQLException
+    {
+        int keys = aColumns.length;
+        Object[] values = new Object[batchSize * keys];
+        Map<List<Object>, List<Integer>> tuples = new HashMap<>();
+        for (int t = 0; t < batchSize; t++)
+        {
+            Object[] tuple = aGroup.get(Math.min(t, aGroup.size() - 1));
+            System.arraycopy(tuple, 0, values, t * keys, keys);
+            if (t < aGroup.size())
+            {
+                List<Object> key = key(tuple);
+                List<Integer> indexes = tuples.get(key);
+                if (indexes == null)
+                {
+                    indexes = new ArrayList<>(1);
+                    tuples.put(key, indexes);
+                }
+                indexes.add(aFirst + t);
+            }
+        }
+        Object[] row = new Object[keys];
+        try (ResultSet rs = executor.execute(aBatch, values))
+        {
+            while (rs.next())
+            {
+                for (int k = 0; k < keys; k++)
+                {
+                    row[k] = rs.getObject(aColumns[k]);
+                }
+                List<Integer> indexes = tuples.get(key(row));
+                if (indexes == null)
+                {
+                    throw new SQLException("Row with keys "
+                            + Arrays.toString(row)
+                            + " does not match any set of parameters");
+                }
+                for (int i = 0; i < indexes.size(); i++)
+                {
+                    aHandler.row(indexes.get(i), rs);
+                }
+            }
+        }
+    }
+
+    /**
+     * Keys are integers or strings (see {@link QueryView#isBatchable()}).
+     * Numbers are compared as longs, because driver might return other
+     * number type than the one used as parameter. Strings are compared
+     * exactly - if database compares them otherwise (e.g. case insensitive
+     * collation), row does not match and execution fails.
+     */
+    private static List<Object> key(Object[] aValues)
+    {
+        Object[] key = new Object[aValues.length];
+        for (int i = 0; i < key.length; i++)
+        {
+            Object v = aValues[i];
+            key[i] = v instanceof Number ? (Object) ((Number) v).longValue()
+                    : v;
+        }
+        return Arrays.asList(key);
+    }
+}
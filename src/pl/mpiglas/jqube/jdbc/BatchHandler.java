@@ -0,0 +1,44 @@
+/*
+ * Select query builder
+ * Copyright (C) 2014  Milosz Piglas [milosz@archeocs.com]
+ *    
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package pl.mpiglas.jqube.jdbc;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * Receives rows read by {@link BatchExecutor}. Columns of row are numbered
+ * like in query of view ({@link pl.mpiglas.jqube.Query#getSelectAttributes()}),
+ * whether row was read by batch query or not. Batch query reads keys after
+ * them, handler should not use such columns.
+ * 
+ */
+public interface BatchHandler
+{
+    /**
+     * Handles single row of result.
+     * 
+     * @param aTuple
+     *            index of parameters' set, that row was read for.
+     * @param aRow
+     *            result set positioned on the row. It must not be moved or
+     *            closed by handler.
+     * @throws SQLException
+     *             if values could not be read.
+     */
+    void row(int aTuple, ResultSet aRow) throws SQLException;
+}
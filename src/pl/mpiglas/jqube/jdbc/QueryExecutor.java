@@ -0,0 +1,392 @@
+/*
+ * Select query builder
+ * Copyright (C) 2014  Milosz Piglas [milosz@archeocs.com]
+ *    
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package pl.mpiglas.jqube.jdbc;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import pl.mpiglas.jqube.InListPolicy;
+import pl.mpiglas.jqube.ParamLayout;
+import pl.mpiglas.jqube.Query;
+import pl.mpiglas.jqube.QueryView;
+
+/**
+ * Executes queries on single connection. Prepared statements are cached by
+ * statement string, so running the same query again only binds new values.
+ * When cache is full, least recently used statement is closed. Like
+ * connection, executor must not be used by many threads at once.
+ * 
+ */
+public class QueryExecutor implements AutoCloseable
+{
+    private final Connection connection;
+    private final int maxStatements;
+    private final Map<String, PreparedStatement> statements;
+    private InListPolicy inListPolicy = InListPolicy.DEFAULT;
+    private long prepared;
+    private long reused;
+    private long evicted;
+
+    /**
+     * Inits executor.
+     * 
+     * @param aConnection
+     *            database connection
+     * @param aMaxStatements
+     *            maximal number of cached prepared statements.
+     */
+    public QueryExecutor(Connection aConnection, int aMaxStatements)
+    {
+        if (aMaxStatements < 1)
+        {
+            throw new IllegalArgumentException(
+                    "Number of statements must be positive");
+        }
+        connection = aConnection;
+        maxStatements = aMaxStatements;
+        statements = new LinkedHashMap<String, PreparedStatement>(16, 0.75f,
+                true);
+    }
+
+    /**
+     * Binds values to parameters of statement. Value with index i is bound to
+     * slot i of layout, null values are set with
+     * {@link PreparedStatement#setNull(int, int)}.
+     * 
+     * @param aStatement
+     *            prepared statement
+     * @param aLayout
+     *            layout of statement's parameters
+     * @param aValues
+     *            values of parameters, one for each slot.
+     * @throws SQLException
+     *             if value could not be bound.
+     */
+    public static void bind(PreparedStatement aStatement, ParamLayout aLayout,
+            Object[] aValues) throws SQLException
+    {
+        if (aValues.length != aLayout.size())
+        {
+            throw new IllegalArgumentException("Expected " + aLayout.size()
+                    + " values, got " + aValues.length);
+        }
+        for (int i = 0; i < aValues.length; i++)
+        {
+            for (int p = 0; p < aLayout.getPositionCount(i); p++)
+            {
+                if (aValues[i] == null)
+                {
+                    aStatement.setNull(aLayout.getPosition(i, p),
+                            aLayout.getSqlType(i));
+                } else
+                {
+                    aStatement.setObject(aLayout.getPosition(i, p),
+                            aValues[i], aLayout.getSqlType(i));
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns prepared statement for query, from cache if possible, with bound
+     * values.
+     * 
+     * @param aQuery
+     *            query
+     * @param aValues
+     *            values of parameters, one for each slot of query's layout.
+     * @return statement ready to execute. Statement is owned by executor and
+     *         must not be closed.
+     * @throws SQLException
+     *             if statement could not be prepared.
+     */
+    public PreparedStatement prepare(Query aQuery, Object... aValues)
+            throws SQLException
+    {
+        PreparedStatement statement = statement(aQuery.getStatement());
+        statement.clearParameters();
+        bind(statement, aQuery.getParamLayout(), aValues);
+        return statement;
+    }
+
+    /**
+     * Executes query.
+     * 
+     * @param aQuery
+     *            query
+     * @param aValues
+     *            values of parameters, one for each slot of query's layout.
+     * @return result of query. Result set must be closed by caller, it is
+     *         also closed when the same query is executed again.
+     * @throws SQLException
+     *             if query failed.
+     */
+    public ResultSet execute(Query aQuery, Object... aValues)
+            throws SQLException
+    {
+        return prepare(aQuery, aValues).executeQuery();
+    }
+
+    /**
+     * Executes query of view. Values of IN conditions are collections or
+     * arrays. Lists are padded with their last value to bucket size of
+     * executor's {@link InListPolicy}, lists longer than threshold are
+     * written to policy's table before query is run.
+     * 
+     * @param aView
+     *            query view
+     * @param aValues
+     *            values of parameters, one for each slot of view's
+     *            {@link QueryView#getQuery()}.
+     * @return result of query. Result set must be closed by caller.
+     * @throws SQLException
+     *             if query failed.
+     */
+    public ResultSet execute(QueryView aView, Object... aValues)
+            throws SQLException
+    {
+        ParamLayout layout = aView.getQuery().getParamLayout();
+        if (aValues.length != layout.size())
+        {
+            throw new IllegalArgumentException("Expected " + layout.size()
+                    + " values, got " + aValues.length);
+        }
+        int[] sizes = new int[aValues.length];
+        Object[][] lists = new Object[aValues.length][];
+        for (int i = 0; i < aValues.length; i++)
+        {
+            if (layout.isList(i))
+            {
+                lists[i] = toArray(aValues[i]);
+                sizes[i] = lists[i].length;
+            }
+        }
+        Query query = aView.getQuery(sizes, inListPolicy);
+        Object[] values = new Object[query.getParamLayout().size()];
+        int slot = 0;
+        for (int i = 0; i < aValues.length; i++)
+        {
+            if (lists[i] == null)
+            {
+                values[slot++] = aValues[i];
+                continue;
+            }
+            int width = inListPolicy.bucket(sizes[i]);
+            if (width == 0)
+            {
+                fillTable(i, lists[i], layout.getSqlType(i));
+                continue;
+            }
+            Object last = lists[i].length > 0 ? lists[i][lists[i].length - 1]
+                    : null;
+            for (int j = 0; j < width; j++)
+            {
+                values[slot++] = j < lists[i].length ? lists[i][j] : last;
+            }
+        }
+        PreparedStatement statement = statement(query.getStatement());
+        statement.clearParameters();
+        bind(statement, query.getParamLayout(), values);
+        return statement.executeQuery();
+    }
+
+    private static Object[] toArray(Object aList)
+    {
+        if (aList instanceof Collection)
+        {
+            return ((Collection<?>) aList).toArray();
+        } else if (aList instanceof Object[])
+        {
+            return (Object[]) aList;
+        }
+        throw new IllegalArgumentException("Value of IN condition must be collection or array");
+    }
+
+    /**
+     * Replaces values of single list - rows of other lists are not touched
+     * (see {@link InListPolicy}).
+     */
+    private void fillTable(int aListId, Object[] aValues, int aSqlType)
+            throws SQLException
+    {
+        PreparedStatement delete = statement("DELETE FROM "
+                + inListPolicy.getTable() + " WHERE "
+                + inListPolicy.getIdColumn() + " = ?");
+        delete.setInt(1, aListId);
+        delete.executeUpdate();
+        PreparedStatement insert = statement("INSERT INTO "
+                + inListPolicy.getTable() + " ("
+                + inListPolicy.getIdColumn() + ", "
+                + inListPolicy.getValueColumn() + ") VALUES (?, ?)");
+        for (Object v : aValues)
+        {
+            insert.setInt(1, aListId);
+            insert.setObject(2, v, aSqlType);
+            insert.addBatch();
+        }
+        insert.executeBatch();
+    }
+
+    /**
+     * Sets policy used to render lists of IN conditions. Table of policy must
+     * exist and be visible only to this connection (e.g. temporary table),
+     * see {@link InListPolicy} for use of table by open results.
+     * 
+     * @param aPolicy
+     *            policy of IN lists.
+     */
+    public void setInListPolicy(InListPolicy aPolicy)
+    {
+        inListPolicy = aPolicy;
+    }
+
+    public final InListPolicy getInListPolicy()
+    {
+        return inListPolicy;
+    }
+
+    /**
+     * Executes query and returns streaming reader of its result.
+     * 
+     * @param aQuery
+     *            query
+     * @param aFetchSize
+     *            number of rows fetched from database at once (0 - driver's
+     *            default).
+     * @param aValues
+     *            values of parameters, one for each slot of query's layout.
+     * @return reader of result. Reader must be closed by caller.
+     * @throws SQLException
+     *             if query failed.
+     */
+    public RowReader read(Query aQuery, int aFetchSize, Object... aValues)
+            throws SQLException
+    {
+        PreparedStatement statement = prepare(aQuery, aValues);
+        statement.setFetchSize(aFetchSize);
+        return new RowReader(aQuery, statement.executeQuery());
+    }
+
+    /**
+     * Finds cached statement or prepares new one.
+     * 
+     * @param aSql
+     *            statement string
+     * @return prepared statement
+     * @throws SQLException
+     *             if statement could not be prepared.
+     */
+    protected PreparedStatement statement(String aSql) throws SQLException
+    {
+        PreparedStatement statement = statements.get(aSql);
+        if (statement != null && !statement.isClosed())
+        {
+            reused++;
+            return statement;
+        }
+        statement = connection.prepareStatement(aSql);
+        prepared++;
+        statements.put(aSql, statement);
+        if (statements.size() > maxStatements)
+        {
+            Iterator<PreparedStatement> eldest = statements.values()
+                    .iterator();
+            PreparedStatement removed = eldest.next();
+            eldest.remove();
+            evicted++;
+            removed.close();
+        }
+        return statement;
+    }
+
+    /**
+     * Closes all cached statements. Connection is not closed.
+     * 
+     * @throws SQLException
+     *             if statement could not be closed.
+     */
+    @Override
+    public void close() throws SQLException
+    {
+        SQLException error = null;
+        for (PreparedStatement s : statements.values())
+        {
+            try
+            {
+                s.close();
+            } catch (SQLException e)
+            {
+                if (error == null)
+                {
+                    error = e;
+                } else
+                {
+                    error.setNextException(e);
+                }
+            }
+        }
+        statements.clear();
+        if (error != null)
+        {
+            throw error;
+        }
+    }
+
+    public final Connection getConnection()
+    {
+        return connection;
+    }
+
+    /**
+     * @return number of statements in cache.
+     */
+    public int size()
+    {
+        return statements.size();
+    }
+
+    /**
+     * @return number of statements prepared by executor.
+     */
+    public long getPrepared()
+    {
+        return prepared;
+    }
+
+    /**
+     * @return number of executions that reused cached statement.
+     */
+    public long getReused()
+    {
+        return reused;
+    }
+
+    /**
+     * @return number of statements closed because cache was full.
+     */
+    public long getEvicted()
+    {
+        return evicted;
+    }
+}
@@ -0,0 +1,395 @@
+/*
+ * Select query builder
+ * Copyright (C) 2014  Milosz Piglas [milosz@archeocs.com]
+ *    
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package pl.mpiglas.jqube.jdbc;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.List;
+
+import pl.mpiglas.jqube.Query;
+import pl.mpiglas.jqube.ViewAttribute;
+
+/**
+ * Streaming reader of query's result. For every column reader prepares
+ * accessor from sql type of attribute: integers, longs and doubles are read
+ * into primitive fields without boxing. Values of current row are kept by
+ * accessors, so reading rows does not create objects (except values of other
+ * types). Columns are numbered from 0, in order of
+ * {@link Query#getSelectAttributes()}.
+ * 
+ */
+public class RowReader implements AutoCloseable
+{
+    private abstract static class Column
+    {
+        protected final int index;
+        protected boolean isNull;
+
+        Column(int aIndex)
+        {
+            index = aIndex;
+        }
+
+        abstract void read(ResultSet aResultSet) throws SQLException;
+
+        int getInt()
+        {
+            long value = getLong();
+            if (value < Integer.MIN_VALUE || value > Integer.MAX_VALUE)
+            {
+                throw new IllegalStateException("Value " + value
+                        + " of column " + index + " is out of int range");
+            }
+            return (int) value;
+        }
+
+        long getLong()
+        {
+            throw new IllegalStateException("Column " + index
+                    + " is not integer");
+        }
+
+        double getDouble()
+        {
+            return getLong();
+        }
+
+        abstract Object getObject();
+    }
+
+    private static final class IntColumn extends Column
+    {
+        private int value;
+
+        IntColumn(int aIndex)
+        {
+            super(aIndex);
+        }
+
+        @Override
+        void read(ResultSet aResultSet) throws SQLException
+        {
+            value = aResultSet.getInt(index);
+            isNull = aResultSet.wasNull();
+        }
+
+        @Override
+        int getInt()
+        {
+            return value;
+        }
+
+        @Override
+        long getLong()
+        {
+            return value;
+        }
+
+        @Override
+        Object getObject()
+        {
+            return isNull ? null : value;
+        }
+    }
+
+    private static final class LongColumn extends Column
+    {
+        private long value;
+
+        LongColumn(int aIndex)
+        {
+            super(aIndex);
+        }
+
+        @Override
+        void read(ResultSet aResultSet) throws SQLException
+        {
+            value = aResultSet.getLong(index);
+            isNull = aResultSet.wasNull();
+        }
+
+        @Override
+        long getLong()
+        {
+            return value;
+        }
+
+        @Override
+        Object getObject()
+        {
+            return isNull ? null : value;
+        }
+    }
+
+    private static final class DoubleColumn extends Column
+    {
+        private double value;
+
+        DoubleColumn(int aIndex)
+        {
+            super(aIndex);
+        }
+
+        @Override
+        void read(ResultSet aResultSet) throws SQLException
+        {
+            value = aResultSet.getDouble(index);
+            isNull = aResultSet.wasNull();
+        }
+
+        @Override
+        long getLong()
+        {
+            throw new IllegalStateException("Column " + index
+                    + " is not integer");
+        }
+
+        @Override
+        double getDouble()
+        {
+            return value;
+        }
+
+        @Override
+        Object getObject()
+        {
+            return isNull ? null : value;
+        }
+    }
+
+    private static final class ObjectColumn extends Column
+    {
+        private Object value;
+
+        ObjectColumn(int aIndex)
+        {
+            super(aIndex);
+        }
+
+        @Override
+        void read(ResultSet aResultSet) throws SQLException
+        {
+            value = aResultSet.getObject(index);
+            isNull = value == null;
+        }
+
+        @Override
+        long getLong()
+        {
+            if (isNull)
+            {
+                return 0;
+            }
+            if (value instanceof Number)
+            {
+                return ((Number) value).longValue();
+            }
+            throw new IllegalStateException("Column " + index
+                    + " is not integer");
+        }
+
+        @Override
+        double getDouble()
+        {
+            if (isNull)
+            {
+                return 0;
+            }
+            if (value instanceof Number)
+            {
+                return ((Number) value).doubleValue();
+            }
+            throw new IllegalStateException("Column " + index
+                    + " is not number");
+        }
+
+        @Override
+        Object getObject()
+        {
+            return value;
+        }
+    }
+
+    private final ResultSet resultSet;
+    private final Column[] columns;
+
+    /**
+     * Inits reader of result set.
+     * 
+     * @param aResultSet
+     *            result of query.
+     * @param aAttributes
+     *            attributes read by query, in order of columns.
+     */
+    public RowReader(ResultSet aResultSet, List<ViewAttribute> aAttributes)
+    {
+        resultSet = aResultSet;
+        columns = new Column[aAttributes.size()];
+        for (int i = 0; i < columns.length; i++)
+        {
+            columns[i] = column(aAttributes.get(i).getSqlType(), i + 1);
+        }
+    }
+
+    /**
+     * Inits reader of query's result set.
+     * 
+     * @param aQuery
+     *            executed query
+     * @param aResultSet
+     *            result of query.
+     */
+    public RowReader(Query aQuery, ResultSet aResultSet)
+    {
+        this(aResultSet, aQuery.getSelectAttributes());
+    }
+
+    private static Column column(int aSqlType, int aIndex)
+    {
+        switch (aSqlType)
+        {
+        case Types.TINYINT:
+        case Types.SMALLINT:
+        case Types.INTEGER:
+            return new IntColumn(aIndex);
+        case Types.BIGINT:
+            return new LongColumn(aIndex);
+        case Types.REAL:
+        case Types.FLOAT:
+        case Types.DOUBLE:
+            return new DoubleColumn(aIndex);
+        default:
+            return new ObjectColumn(aIndex);
+        }
+    }
+
+    /**
+     * Moves to the next row and reads its values.
+     * 
+     * @return false if there are no more rows.
+     * @throws SQLException
+     *             if row could not be read.
+     */
+    public boolean next() throws SQLException
+    {
+        if (!resultSet.next())
+        {
+            return false;
+        }
+        for (int i = 0; i < columns.length; i++)
+        {
+            columns[i].read(resultSet);
+        }
+        return true;
+    }
+
+    /**
+     * Sets number of rows fetched from database at once.
+     * 
+     * @param aRows
+     *            number of rows.
+     * @throws SQLException
+     *             if driver does not accept fetch size.
+     */
+    public void setFetchSize(int aRows) throws SQLException
+    {
+        resultSet.setFetchSize(aRows);
+    }
+
+    /**
+     * @return number of columns.
+     */
+    public int getColumnCount()
+    {
+        return columns.length;
+    }
+
+    /**
+     * @param aColumn
+     *            column number
+     * @return true if value of column in current row is null.
+     */
+    public boolean isNull(int aColumn)
+    {
+        return columns[aColumn].isNull;
+    }
+
+    /**
+     * Reads integer value. Values of BIGINT columns and numbers read as
+     * objects (e.g. DECIMAL) are narrowed like {@link #getLong(int)} does.
+     * 
+     * @param aColumn
+     *            column number (integer column).
+     * @return value of column in current row, 0 if null.
+     * @throws IllegalStateException
+     *             if column is not integer or value is out of int range.
+     */
+    public int getInt(int aColumn)
+    {
+        return columns[aColumn].getInt();
+    }
+
+    /**
+     * Reads integer value. Numbers read as objects are truncated to long.
+     * 
+     * @param aColumn
+     *            column number (integer column).
+     * @return value of column in current row, 0 if null.
+     * @throws IllegalStateException
+     *             if column is not integer.
+     */
+    public long getLong(int aColumn)
+    {
+        return columns[aColumn].getLong();
+    }
+
+    /**
+     * @param aColumn
+     *            column number (numeric column).
+     * @return value of column in current row, 0 if null.
+     */
+    public double getDouble(int aColumn)
+    {
+        return columns[aColumn].getDouble();
+    }
+
+    /**
+     * Reads value as object. Values of primitive columns are boxed.
+     * 
+     * @param aColumn
+     *            column number
+     * @return value of column in current row.
+     */
+    public Object getObject(int aColumn)
+    {
+        return columns[aColumn].getObject();
+    }
+
+    /**
+     * Closes result set.
+     * 
+     * @throws SQLException
+     *             if result set could not be closed.
+     */
+    @Override
+    public void close() throws SQLException
+    {
+        resultSet.close();
+    }
+}
@@ -0,0 +1,346 @@
+/*
+ * Select query builder
+ * Copyright (C) 2014  Milosz Piglas [milosz@archeocs.com]
+ *    
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package pl.mpiglas.jqube.precompile;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import pl.mpiglas.jqube.ParamLayout;
+import pl.mpiglas.jqube.Query;
+import pl.mpiglas.jqube.View;
+import pl.mpiglas.jqube.ViewAttribute;
+
+/**
+ * Generates Java class holding queries of {@link QueryDefinitions} as
+ * constants. Each query is written as statement string and compiled
+ * {@link ParamLayout}, so application loading generated class does not build
+ * any query. Attributes of generated queries belong to
+ * {@link pl.mpiglas.jqube.TableView}s with names and sources of original
+ * views.
+ * <p>
+ * Usage: QueryPrecompiler definitions-class generated-class output-dir
+ * 
+ */
+public class QueryPrecompiler
+{
+    private static final Map<Integer, String> TYPE_NAMES = typeNames();
+
+    private final String className;
+
+    /**
+     * Inits precompiler.
+     * 
+     * @param aClassName
+     *            fully qualified name of generated class.
+     */
+    public QueryPrecompiler(String aClassName)
+    {
+        className = aClassName;
+    }
+
+    public static void main(String[] args) throws IOException,
+            ReflectiveOperationException
+    {
+        if (args.length != 3)
+        {
+            System.err.println("Usage: QueryPrecompiler definitions-class"
+                    + " generated-class output-dir");
+            System.exit(1);
+        }
+        QueryDefinitions definitions = (QueryDefinitions) Class
+                .forName(args[0]).getConstructor().newInstance();
+        QueryPrecompiler precompiler = new QueryPrecompiler(args[1]);
+        String code = precompiler.generate(definitions.getQueries(), args[0]);
+        Path file = Paths.get(args[2], args[1].replace('.', '/') + ".java");
+        Files.createDirectories(file.getParent());
+        try (Writer out = Files.newBufferedWriter(file,
+                StandardCharsets.UTF_8))
+        {
+            out.write(code);
+        }
+    }
+
+    /**
+     * Generates source of class.
+     * 
+     * @param aQueries
+     *            queries by their names.
+     * @param aOrigin
+     *            description of queries' origin, written to comment.
+     * @return source code.
+     */
+    public String generate(Map<String, Query> aQueries, String aOrigin)
+    {
+        Map<String, Query> queries = new TreeMap<>(aQueries);
+        int dot = className.lastIndexOf('.');
+        String simpleName = className.substring(dot + 1);
+        StringBuilder out = new StringBuilder(4096);
+        out.append("// Generated by QueryPrecompiler from ").append(aOrigin)
+                .append(" - do not edit.\n");
+        if (dot > 0)
+        {
+            out.append("package ").append(className.substring(0, dot))
+                    .append(";\n");
+        }
+        out.append("\nimport java.sql.Types;\n")
+                .append("import java.util.Arrays;\n")
+                .append("import java.util.Collections;\n")
+                .append("import java.util.HashMap;\n")
+                .append("import java.util.Map;\n\n")
+                .append("import pl.mpiglas.jqube.ParamLayout;\n")
+                .append("import pl.mpiglas.jqube.Query;\n")
+                .append("import pl.mpiglas.jqube.TableView;\n")
+                .append("import pl.mpiglas.jqube.ViewAttribute;\n\n")
+                .append("public final class ").append(simpleName)
+                .append("\n{\n");
+        Map<String, String> constants = new HashMap<>();
+        Set<String> used = new HashSet<>();
+        for (String name : queries.keySet())
+        {
+            String constant = constantName(name);
+            if (!used.add(constant))
+            {
+                throw new IllegalArgumentException("Query " + name
+                        + " has the same constant name as other query");
+            }
+            constants.put(name, constant);
+            out.append("    public static final Query ").append(constant)
+                    .append(" = ").append(methodName(constant))
+                    .append("();\n");
+        }
+        out.append("\n    private static final Map<String, Query> QUERIES;\n\n")
+                .append("    static\n    {\n")
+                .append("        Map<String, Query> queries = new HashMap<>();\n");
+        for (String name : queries.keySet())
+        {
+            out.append("        queries.put(");
+            literal(out, name).append(", ").append(constants.get(name))
+                    .append(");\n");
+        }
+        out.append("        QUERIES = Collections.unmodifiableMap(queries);\n")
+                .append("    }\n\n    private ").append(simpleName)
+                .append("()\n    {\n    }\n\n")
+                .append("    /**\n     * @param aName\n")
+                .append("     *            name of query\n")
+                .append("     * @return query or null if not defined.\n")
+                .append("     */\n")
+                .append("    public static Query get(String aName)\n    {\n")
+                .append("        return QUERIES.get(aName);\n    }\n");
+        for (Map.Entry<String, Query> e : queries.entrySet())
+        {
+            prepareMethod(out, methodName(constants.get(e.getKey())),
+                    e.getValue());
+        }
+        return out.append("}\n").toString();
+    }
+
+    private void prepareMethod(StringBuilder aOut, String aMethod, Query aQuery)
+    {
+        ParamLayout layout = aQuery.getParamLayout();
+        List<ViewAttribute> attributes = new ArrayList<>();
+        Map<ViewAttribute, Integer> indexes = new IdentityHashMap<>();
+        Map<View, Integer> views = new IdentityHashMap<>();
+        for (ViewAttribute a : aQuery.getSelectAttributes())
+        {
+            index(a, attributes, indexes);
+        }
+        for (int i = 0; i < layout.size(); i++)
+        {
+            index(layout.getAttribute(i), attributes, indexes);
+        }
+        aOut.append("\n    private static Query ").append(aMethod)
+                .append("()\n    {\n");
+        for (ViewAttribute a : attributes)
+        {
+            if (!views.containsKey(a.getView()))
+            {
+                views.put(a.getView(), views.size());
+                aOut.append("        TableView v").append(views.size() - 1)
+                        .append(" = new TableView(");
+                literal(aOut, a.getView().getName()).append(",\n                ");
+                literal(aOut, a.getView().getSource()).append(");\n");
+            }
+        }
+        aOut.append("        ViewAttribute[] a = {");
+        for (int i = 0; i < attributes.size(); i++)
+        {
+            ViewAttribute a = attributes.get(i);
+            aOut.append(i > 0 ? "," : "").append("\n                new ViewAttribute(");
+            literal(aOut, a.getDbName()).append(", v")
+                    .append(views.get(a.getView())).append(", ");
+            literal(aOut, a.getUserName()).append(", ");
+            type(aOut, a.getSqlType()).append(')');
+        }
+        aOut.append(" };\n        return new Query(");
+        literal(aOut, aQuery.getStatement()).append(",\n                new ParamLayout(new ViewAttribute[] {");
+        for (int i = 0; i < layout.size(); i++)
+        {
+            ViewAttribute a = layout.getAttribute(i);
+            aOut.append(i > 0 ? ", " : " ");
+            aOut.append(a != null ? "a[" + indexes.get(a) + "]" : "null");
+        }
+        aOut.append(" },\n                        new int[][] {");
+        for (int i = 0; i < layout.size(); i++)
+        {
+            aOut.append(i > 0 ? ", { " : " { ");
+            for (int p = 0; p < layout.getPositionCount(i); p++)
+            {
+                aOut.append(p > 0 ? ", " : "").append(layout.getPosition(i, p));
+            }
+            aOut.append(" }");
+        }
+        aOut.append(" },\n                        new int[] {");
+        for (int i = 0; i < layout.size(); i++)
+        {
+            type(aOut.append(i > 0 ? ", " : " "), layout.getSqlType(i));
+        }
+        aOut.append(" },\n                        new boolean[] {");
+        for (int i = 0; i < layout.size(); i++)
+        {
+            aOut.append(i > 0 ? ", " : " ").append(layout.isList(i));
+        }
+        aOut.append(" }),\n                Arrays.asList(");
+        List<ViewAttribute> selected = aQuery.getSelectAttributes();
+        for (int i = 0; i < selected.size(); i++)
+        {
+            aOut.append(i > 0 ? ", " : "").append("a[")
+                    .append(indexes.get(selected.get(i))).append(']');
+        }
+        aOut.append(selected.isEmpty() ? "new ViewAttribute[0]" : "")
+                .append("));\n    }\n");
+    }
+
+    private static void index(ViewAttribute aAttribute,
+            List<ViewAttribute> aAttributes,
+            Map<ViewAttribute, Integer> aIndexes)
+    {
+        if (aAttribute != null && !aIndexes.containsKey(aAttribute))
+        {
+            aIndexes.put(aAttribute, aAttributes.size());
+            aAttributes.add(aAttribute);
+        }
+    }
+
+    private static String constantName(String aName)
+    {
+        StringBuilder name = new StringBuilder(aName.length() + 8);
+        for (int i = 0; i < aName.length(); i++)
+        {
+            char c = aName.charAt(i);
+            if (i > 0 && Character.isUpperCase(c)
+                    && Character.isLowerCase(aName.charAt(i - 1)))
+            {
+                name.append('_');
+            }
+            name.append(Character.isJavaIdentifierPart(c) ? Character
+                    .toUpperCase(c) : '_');
+        }
+        if (name.length() == 0 || !Character.isJavaIdentifierStart(name.charAt(0)))
+        {
+            name.insert(0, '_');
+        }
+        return name.toString();
+    }
+
+    private static String methodName(String aConstant)
+    {
+        return "create" + aConstant;
+    }
+
+    private static StringBuilder literal(StringBuilder aOut, String aValue)
+    {
+        if (aValue == null)
+        {
+            return aOut.append("null");
+        }
+        aOut.append('"');
+        for (int i = 0; i < aValue.length(); i++)
+        {
+            char c = aValue.charAt(i);
+            switch (c)
+            {
+            case '"':
+                aOut.append("\\\"");
+                break;
+            case '\\':
+                aOut.append("\\\\");
+                break;
+            case '\n':
+                aOut.append("\\n");
+                break;
+            case '\r':
+                aOut.append("\\r");
+                break;
+            case '\t':
+                aOut.append("\\t");
+                break;
+            default:
+                if (c < 0x20 || c > 0x7e)
+                {
+                    aOut.append(String.format("\\u%04x", (int) c));
+                } else
+                {
+                    aOut.append(c);
+                }
+            }
+        }
+        return aOut.append('"');
+    }
+
+    private static StringBuilder type(StringBuilder aOut, int aSqlType)
+    {
+        String name = TYPE_NAMES.get(aSqlType);
+        return name != null ? aOut.append("Types.").append(name) : aOut
+                .append(aSqlType);
+    }
+
+    private static Map<Integer, String> typeNames()
+    {
+        Map<Integer, String> names = new HashMap<>();
+        for (Field f : Types.class.getFields())
+        {
+            if (Modifier.isStatic(f.getModifiers())
+                    && f.getType() == int.class)
+            {
+                try
+                {
+                    names.put(f.getInt(null), f.getName());
+                } catch (IllegalAccessException e)
+                {
+                    throw new IllegalStateException(e);
+                }
+            }
+        }
+        return names;
+    }
+}
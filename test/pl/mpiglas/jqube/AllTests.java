@@ -0,0 +1,36 @@
+/*
+ * Select query builder
+ * Copyright (C) 2014  Milosz Piglas [milosz@archeocs.com]
+ *    
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package pl.mpiglas.jqube;
+
+import org.junit.runner.RunWith;
+import org.junit.runners.Suite;
+import org.junit.runners.Suite.SuiteClasses;
+
+import pl.mpiglas.jqube.jdbc.BatchExecutorTest;
+import pl.mpiglas.jqube.jdbc.QueryExecutorTest;
+
+/**
+ * All tests, run by 'test' target of build.
+ * 
+ */
+@RunWith(Suite.class)
+@SuiteClasses({ RewriteTest.class, QueryExecutorTest.class,
+        BatchExecutorTest.class })
+public class AllTests
+{
+}
@@ -0,0 +1,414 @@
+/*
+ * Select query builder
+ * Copyright (C) 2014  Milosz Piglas [milosz@archeocs.com]
+ *    
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package pl.mpiglas.jqube;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.Arrays;
+
+import pl.mpiglas.jqube.Condition.Function;
+import pl.mpiglas.jqube.Condition.Operator;
+import pl.mpiglas.jqube.ViewAttribute.Aggregation;
+
+/**
+ * Schema and data of tests: books with publishers, their cities, categories
+ * of books, sales of books and stores. Every book has publisher and
+ * category, publisher might have no city, book might have no sales. Views of
+ * queries exercise single rewrite each, so their statements are checked by
+ * {@link RewriteTest} and their rows by executor's tests.
+ * 
+ */
+public class Library
+{
+    public final TableView books;
+    public final TableView publishers;
+    public final TableView cities;
+    public final TableView categories;
+    public final TableView sales;
+    public final TableView stores;
+    public final ViewsRelation booksPublishers;
+    public final ViewsRelation publishersCities;
+    public final ViewsRelation booksCategories;
+    public final ViewsRelation booksSales;
+    public final ViewsRelation salesStores;
+    public final Schema schema;
+
+    /**
+     * Inits views and relations. Views are not added to any schema.
+     */
+    public Library()
+    {
+        books = new TableView("Books", "BOOKS");
+        books.addAttribute("id", null, Types.INTEGER);
+        books.addAttribute("title", null, Types.VARCHAR);
+        books.addAttribute("author", null, Types.VARCHAR);
+        books.addAttribute("publisher", null, Types.INTEGER);
+        books.addAttribute("category", null, Types.INTEGER);
+        books.addAttribute("issued", null, Types.INTEGER);
+        publishers = new TableView("Publishers", "PUBLISHERS");
+        publishers.addAttribute("id", null, Types.INTEGER);
+        publishers.addAttribute("name", null, Types.VARCHAR);
+        publishers.addAttribute("city", null, Types.INTEGER);
+        cities = new TableView("Cities", "CITIES");
+        cities.addAttribute("id", null, Types.INTEGER);
+        cities.addAttribute("name", null, Types.VARCHAR);
+        categories = new TableView("Categories", "CATEGORIES");
+        categories.addAttribute("id", null, Types.INTEGER);
+        categories.addAttribute("name", null, Types.VARCHAR);
+        sales = new TableView("Sales", "SALES");
+        sales.addAttribute("book", null, Types.INTEGER);
+        sales.addAttribute("store", null, Types.INTEGER);
+        sales.addAttribute("amount", null, Types.INTEGER);
+        stores = new TableView("Stores", "STORES");
+        stores.addAttribute("id", null, Types.INTEGER);
+        stores.addAttribute("city", null, Types.VARCHAR);
+
+        booksPublishers = relation(books, "publisher", publishers, "id",
+                publishers, true);
+        publishersCities = relation(publishers, "city", cities, "id", cities,
+                false);
+        booksCategories = relation(books, "category", categories, "id",
+                categories, true);
+        booksSales = relation(books, "id", sales, "book", books, true);
+        salesStores = relation(sales, "store", stores, "id", stores, true);
+        schema = schema();
+    }
+
+    private static ViewsRelation relation(View aView, String aAttribute,
+            View aOther, String aOtherAttribute, View aKeyView,
+            boolean aMandatory)
+    {
+        return new ViewsRelation(Arrays.asList(new AttributesPair(aView
+                .getAttribute(aAttribute), aOther
+                .getAttribute(aOtherAttribute))), aKeyView, aMandatory);
+    }
+
+    private static ViewsRelation relation(Attribute aAttribute,
+            Attribute aOther)
+    {
+        return new ViewsRelation(Arrays.asList(new AttributesPair(aAttribute,
+                aOther)));
+    }
+
+    private static Condition condition(Function aFunction,
+            Operator aOperator)
+    {
+        return new Condition(aFunction, aOperator);
+    }
+
+    /**
+     * Creates schema of all views, books are the first view.
+     * 
+     * @return new schema
+     */
+    public Schema schema()
+    {
+        Schema s = new Schema();
+        s.addView(books);
+        s.addView(publishers, booksPublishers);
+        s.addView(cities, publishersCities);
+        s.addView(categories, booksCategories);
+        s.addView(sales, booksSales);
+        s.addView(stores, salesStores);
+        return s;
+    }
+
+    /**
+     * Titles of books ordered by publisher's id - publishers are eliminated,
+     * so are hidden cities joined with outer join.
+     * 
+     * @return view without parameters
+     */
+    public QueryView eliminated()
+    {
+        QueryBuilder b = new QueryBuilder(schema);
+        b.add(books.getAttribute("title").select().withOrderBy(true).build());
+        b.add(publishers.getAttribute("id").select().withOrderBy(true).build());
+        b.add(cities.getAttribute("name").select().withVisible(false).build(),
+                true);
+        return b.createView("Eliminated");
+    }
+
+    /**
+     * Simple nested view of books and names of their publishers (pname).
+     * Condition of title is not part of its source.
+     * 
+     * @return nested view
+     */
+    public QueryView titles()
+    {
+        QueryBuilder b = new QueryBuilder(schema);
+        b.add(books.getAttribute("id").select().build());
+        b.add(books.getAttribute("title").select()
+                .withCondition(condition(Function.AND, Operator.LIKE)).build());
+        b.add(publishers.getAttribute("name").select().withAliasName("pname")
+                .build());
+        return b.createView("Titles");
+    }
+
+    /**
+     * Sales with amount greater than parameter, with titles and publishers
+     * read through {@link #titles()} flattened into the query.
+     * 
+     * @return view with single parameter (amount)
+     */
+    public QueryView flattened()
+    {
+        QueryView titles = titles();
+        Schema s = new Schema();
+        s.addView(sales);
+        s.addView(titles,
+                relation(sales.getAttribute("book"), titles.getAttribute("id")));
+        QueryBuilder b = new QueryBuilder(s);
+        b.add(sales.getAttribute("amount").select().withOrderBy(true)
+                .withCondition(condition(Function.AND, Operator.GT)).build());
+        b.add(titles.getAttribute("title").select().withOrderBy(true).build());
+        b.add(titles.getAttribute("pname").select().build());
+        return b.createView("Flattened");
+    }
+
+    /**
+     * Number of books (cnt) of each publisher.
+     * 
+     * @return aggregated view
+     */
+    public QueryView counts()
+    {
+        QueryBuilder b = new QueryBuilder(schema);
+        b.add(books.getAttribute("id").select()
+                .withAggregate(Aggregation.COUNT).withAliasName("cnt").build());
+        b.add(books.getAttribute("publisher").select().withGroupBy(true)
+                .build());
+        return b.createView("Counts");
+    }
+
+    /**
+     * Name and number of books of publisher given by id. Condition of id is
+     * pushed into aggregated {@link #counts()}.
+     * 
+     * @return view with single parameter (id of publisher)
+     */
+    public QueryView pushed()
+    {
+        QueryView counts = counts();
+        Schema s = new Schema();
+        s.addView(publishers);
+        s.addView(counts, relation(publishers.getAttribute("id"),
+                counts.getAttribute("publisher")));
+        QueryBuilder b = new QueryBuilder(s);
+        b.add(publishers.getAttribute("name").select().withOrderBy(true)
+                .build());
+        b.add(counts.getAttribute("cnt").select().build());
+        b.add(counts.getAttribute("publisher").select().withVisible(false)
+                .withCondition(condition(Function.AND, Operator.EQ)).build());
+        return b.createView("Pushed");
+    }
+
+    /**
+     * Titles of books sold in store of city with amount greater than
+     * parameter. Sales and stores are only filters, so they are semi-joined.
+     * 
+     * @return view with two parameters (city, amount)
+     */
+    public QueryView semiJoined()
+    {
+        QueryBuilder b = new QueryBuilder(schema);
+        b.add(books.getAttribute("title").select().withOrderBy(true).build());
+        b.add(stores.getAttribute("city").select().withVisible(false)
+                .withCondition(condition(Function.AND, Operator.EQ)).build());
+        b.add(sales.getAttribute("amount").select().withVisible(false)
+                .withCondition(condition(Function.AND, Operator.GT)).build());
+        return b.createView("SemiJoined");
+    }
+
+    /**
+     * Titles of sold books, whose title is like the first parameter or with
+     * amount of sale greater than the second one. Whole WHERE clause is moved
+     * into semi-join.
+     * 
+     * @return view with two parameters (title, amount)
+     */
+    public QueryView semiJoinedOr()
+    {
+        QueryBuilder b = new QueryBuilder(schema);
+        b.add(books.getAttribute("title").select().withOrderBy(true)
+                .withCondition(condition(Function.AND, Operator.LIKE)).build());
+        b.add(sales.getAttribute("amount").select().withVisible(false)
+                .withCondition(condition(Function.OR, Operator.GT)).build());
+        return b.createView("SemiJoinedOr");
+    }
+
+    /**
+     * Names of publishers and number of their books (total). {@link
+     * #counts()} is joined twice - directly and through flattened view of
+     * publishers - so it is written once in WITH clause, if dialect allows.
+     * 
+     * @param aDialect
+     *            dialect of schema
+     * @return view without parameters
+     */
+    public QueryView common(Dialect aDialect)
+    {
+        QueryView counts = counts();
+        Schema s = new Schema();
+        s.setDialect(aDialect);
+        s.addView(publishers);
+        s.addView(counts, relation(publishers.getAttribute("id"),
+                counts.getAttribute("publisher")));
+        QueryBuilder b = new QueryBuilder(s);
+        b.add(publishers.getAttribute("id").select().build());
+        b.add(publishers.getAttribute("name").select().build());
+        b.add(counts.getAttribute("cnt").select().build());
+        QueryView ranked = b.createView("Ranked");
+        Schema r = new Schema();
+        r.setDialect(aDialect);
+        r.addView(ranked);
+        r.addView(counts, relation(ranked.getAttribute("id"),
+                counts.getAttribute("publisher")));
+        b = new QueryBuilder(r);
+        b.add(ranked.getAttribute("name").select().withOrderBy(true).build());
+        b.add(counts.getAttribute("cnt").select().withAliasName("total")
+                .build());
+        return b.createView("Common");
+    }
+
+    /**
+     * Sales of books of category, with stores and titles. Statistics of
+     * schema decide, which view is the root of joins.
+     * 
+     * @param aSchema
+     *            schema of library
+     * @return view with single parameter (name of category)
+     */
+    public QueryView ordered(Schema aSchema)
+    {
+        QueryBuilder b = new QueryBuilder(aSchema);
+        b.add(sales.getAttribute("amount").select().build());
+        b.add(stores.getAttribute("city").select().build());
+        b.add(books.getAttribute("title").select().build());
+        b.add(categories.getAttribute("name").select()
+                .withCondition(condition(Function.AND, Operator.EQ)).build());
+        return b.createView("Ordered");
+    }
+
+    /**
+     * Titles of books with id in list, issued before year.
+     * 
+     * @return view with two parameters (list of ids, year)
+     */
+    public QueryView inList()
+    {
+        QueryBuilder b = new QueryBuilder(schema);
+        b.add(books.getAttribute("title").select().withOrderBy(true).build());
+        b.add(books.getAttribute("id").select().withVisible(false)
+                .withCondition(condition(Function.AND, Operator.IN)).build());
+        b.add(books.getAttribute("issued").select().withVisible(false)
+                .withCondition(condition(Function.AND, Operator.LT)).build());
+        return b.createView("InList");
+    }
+
+    /**
+     * Books issued after year, ordered by year and id.
+     * 
+     * @return view with single parameter (year)
+     */
+    public QueryView paged()
+    {
+        QueryBuilder b = new QueryBuilder(schema);
+        b.add(books.getAttribute("title").select().build());
+        b.add(books.getAttribute("issued").select().withOrderBy(true)
+                .withCondition(condition(Function.AND, Operator.GT)).build());
+        b.add(books.getAttribute("id").select().withOrderBy(true).build());
+        return b.createView("Paged");
+    }
+
+    /**
+     * Titles of books of publisher given by name.
+     * 
+     * @return batchable view with single parameter (name of publisher)
+     */
+    public QueryView byPublisher()
+    {
+        QueryBuilder b = new QueryBuilder(schema);
+        b.add(books.getAttribute("title").select().withOrderBy(true).build());
+        b.add(publishers.getAttribute("name").select()
+                .withCondition(condition(Function.AND, Operator.EQ)).build());
+        return b.createView("ByPublisher");
+    }
+
+    /**
+     * Titles of books with names of publisher and category (category), given
+     * by parameters. Filters are visible, so they are not semi-joined.
+     * 
+     * @return batchable view with two parameters (publisher, category)
+     */
+    public QueryView byPublisherAndCategory()
+    {
+        QueryBuilder b = new QueryBuilder(schema);
+        b.add(books.getAttribute("title").select().withOrderBy(true).build());
+        b.add(publishers.getAttribute("name").select()
+                .withCondition(condition(Function.AND, Operator.EQ)).build());
+        b.add(categories.getAttribute("name").select()
+                .withAliasName("category")
+                .withCondition(condition(Function.AND, Operator.EQ)).build());
+        return b.createView("ByPublisherAndCategory");
+    }
+
+    /**
+     * Opens in-memory H2 database with tables of library. Database is dropped
+     * when connection is closed.
+     * 
+     * @return connection to new database
+     * @throws SQLException
+     *             if database could not be created.
+     */
+    public static Connection open() throws SQLException
+    {
+        Connection c = DriverManager.getConnection("jdbc:h2:mem:");
+        try (Statement s = c.createStatement())
+        {
+            s.execute("CREATE TABLE CITIES (ID INT PRIMARY KEY, NAME VARCHAR(40))");
+            s.execute("CREATE TABLE PUBLISHERS (ID INT PRIMARY KEY, NAME VARCHAR(40), CITY INT)");
+            s.execute("CREATE TABLE CATEGORIES (ID INT PRIMARY KEY, NAME VARCHAR(40))");
+            s.execute("CREATE TABLE BOOKS (ID INT PRIMARY KEY, TITLE VARCHAR(40), "
+                    + "AUTHOR VARCHAR(40), PUBLISHER INT NOT NULL, "
+                    + "CATEGORY INT NOT NULL, ISSUED INT)");
+            s.execute("CREATE TABLE STORES (ID INT PRIMARY KEY, CITY VARCHAR(40))");
+            s.execute("CREATE TABLE SALES (BOOK INT NOT NULL, STORE INT NOT NULL, AMOUNT INT)");
+            s.execute("CREATE TABLE JQUBE_IN_LIST (LIST_ID INT, VAL INT)");
+            s.execute("INSERT INTO CITIES VALUES (1, 'Gliwice'), (2, 'Warszawa')");
+            s.execute("INSERT INTO PUBLISHERS VALUES (1, 'Helion', 1), "
+                    + "(2, 'PWN', 2), (3, 'Znak', NULL)");
+            s.execute("INSERT INTO CATEGORIES VALUES (1, 'Java'), (2, 'SQL'), "
+                    + "(3, 'Poetry')");
+            s.execute("INSERT INTO BOOKS VALUES "
+                    + "(1, 'Thinking in Java', 'Eckel', 1, 1, 2006), "
+                    + "(2, 'SQL for Smarties', 'Celko', 2, 2, 2010), "
+                    + "(3, 'Ant in Action', 'Loughran', 1, 1, 2007), "
+                    + "(4, 'Poems', 'Szymborska', 3, 3, 1996), "
+                    + "(5, 'Database Programming with JDBC', 'Reese', 1, 2, 2000)");
+            s.execute("INSERT INTO STORES VALUES (1, 'Gliwice'), (2, 'Krakow')");
+            s.execute("INSERT INTO SALES VALUES (1, 1, 10), (1, 2, 5), "
+                    + "(2, 1, 3), (3, 2, 7), (5, 1, 1)");
+        }
+        return c;
+    }
+}
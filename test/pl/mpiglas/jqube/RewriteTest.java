@@ -0,0 +1,267 @@
+/*
+ * Select query builder
+ * Copyright (C) 2014  Milosz Piglas [milosz@archeocs.com]
+ *    
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package pl.mpiglas.jqube;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * Statements rendered by rewrites of {@link QueryView}. Rows read by the same
+ * statements are checked by tests of executors.
+ * 
+ */
+public class RewriteTest
+{
+    private final Library library = new Library();
+
+    @Test
+    public void eliminatesJoinsOfKeyViews()
+    {
+        Query q = library.eliminated().getQuery();
+        assertEquals("SELECT A.title, A.publisher as id FROM\n"
+                + "BOOKS A\n"
+                + " ORDER BY A.title, A.publisher", q.getStatement());
+    }
+
+    @Test
+    public void flattensSimpleNestedView()
+    {
+        Query q = library.flattened().getQuery();
+        assertEquals("SELECT A.amount, C.title as title, D.name as pname FROM\n"
+                + "SALES A\n"
+                + "JOIN BOOKS C ON A.book = C.id\n"
+                + "JOIN PUBLISHERS D ON C.publisher = D.id\n"
+                + " WHERE  A.amount > ?\n"
+                + " ORDER BY A.amount, C.title", q.getStatement());
+        assertEquals(1, q.getParamLayout().size());
+    }
+
+    @Test
+    public void pushesConditionIntoNestedView()
+    {
+        Query q = library.pushed().getQuery();
+        assertEquals("SELECT A.name, B.cnt FROM\n"
+                + "PUBLISHERS A\n"
+                + "JOIN (SELECT COUNT(A.id) as cnt, A.publisher FROM\n"
+                + "BOOKS A\n"
+                + " WHERE  A.publisher = ?\n"
+                + " GROUP BY A.publisher) B ON A.id = B.publisher\n"
+                + " ORDER BY A.name", q.getStatement());
+        assertEquals(1, q.getParamLayout().size());
+    }
+
+    @Test
+    public void semiJoinsFilterOnlyViews()
+    {
+        Query q = library.semiJoined().getQuery();
+        assertEquals("SELECT A.title FROM\n"
+                + "BOOKS A\n"
+                + " WHERE EXISTS (SELECT 1 FROM\n"
+                + "SALES B\n"
+                + "JOIN STORES C ON B.store = C.id\n"
+                + " WHERE A.id = B.book  AND  C.city = ?  AND  B.amount > ?)\n"
+                + " ORDER BY A.title", q.getStatement());
+    }
+
+    @Test
+    public void semiJoinsViewsOfInactivePredicates()
+    {
+        QueryView v = library.semiJoined();
+        assertEquals("SELECT A.title FROM\n"
+                + "BOOKS A\n"
+                + " WHERE EXISTS (SELECT 1 FROM\n"
+                + "SALES B\n"
+                + "JOIN STORES C ON B.store = C.id\n"
+                + " WHERE A.id = B.book  AND  C.city = ?)\n"
+                + " ORDER BY A.title", v.getQuery(1L).getStatement());
+        assertEquals("SELECT A.title FROM\n"
+                + "BOOKS A\n"
+                + " WHERE EXISTS (SELECT 1 FROM\n"
+                + "SALES B\n"
+                + " WHERE A.id = B.book)\n"
+                + " ORDER BY A.title", v.getQuery(0L).getStatement());
+        assertEquals(0, v.getQuery(0L).getParamLayout().size());
+    }
+
+    @Test
+    public void movesDisjunctionIntoSemiJoin()
+    {
+        Query q = library.semiJoinedOr().getQuery();
+        assertEquals("SELECT A.title FROM\n"
+                + "BOOKS A\n"
+                + " WHERE EXISTS (SELECT 1 FROM\n"
+                + "SALES B\n"
+                + " WHERE A.id = B.book AND ( A.title LIKE ?  OR  B.amount > ?))\n"
+                + " ORDER BY A.title", q.getStatement());
+    }
+
+    @Test
+    public void writesRepeatedViewInWithClause()
+    {
+        Query q = library.common(Dialect.LIMIT_OFFSET).getQuery();
+        assertEquals("WITH cte1 AS (SELECT COUNT(A.id) as cnt, A.publisher FROM\n"
+                + "BOOKS A\n"
+                + " GROUP BY A.publisher)\n"
+                + "SELECT C.name as name, B.cnt as total FROM\n"
+                + "PUBLISHERS C\n"
+                + "JOIN cte1 D ON C.id = D.publisher\n"
+                + "JOIN cte1 B ON C.id = B.publisher\n"
+                + " ORDER BY C.name", q.getStatement());
+    }
+
+    @Test
+    public void repeatsViewWithoutWithClause()
+    {
+        Query q = library.common(Dialect.LIMIT_OFFSET_NO_WITH).getQuery();
+        String counts = "(SELECT COUNT(A.id) as cnt, A.publisher FROM\n"
+                + "BOOKS A\n"
+                + " GROUP BY A.publisher)";
+        assertEquals("SELECT C.name as name, B.cnt as total FROM\n"
+                + "PUBLISHERS C\n"
+                + "JOIN " + counts + " D ON C.id = D.publisher\n"
+                + "JOIN " + counts + " B ON C.id = B.publisher\n"
+                + " ORDER BY C.name", q.getStatement());
+    }
+
+    @Test
+    public void keepsOrderOfJoinsWithoutStatistics()
+    {
+        Query q = library.ordered(library.schema).getQuery();
+        assertEquals("SELECT A.amount, B.city, C.title, D.name FROM\n"
+                + "SALES A\n"
+                + "JOIN STORES B ON A.store = B.id\n"
+                + "JOIN BOOKS C ON A.book = C.id\n"
+                + "JOIN CATEGORIES D ON C.category = D.id\n"
+                + " WHERE  D.name = ?", q.getStatement());
+    }
+
+    @Test
+    public void startsJoinsFromSelectiveView()
+    {
+        Schema s = library.schema();
+        s.setRowCount(library.books, 1000000);
+        s.setRowCount(library.sales, 50000000);
+        s.setRowCount(library.stores, 50);
+        s.setRowCount(library.categories, 20);
+        s.setSelectivity(library.categories.getAttribute("name"), 0.05);
+        Query q = library.ordered(s).getQuery();
+        assertEquals("SELECT A.amount, B.city, C.title, D.name FROM\n"
+                + "CATEGORIES D\n"
+                + "JOIN BOOKS C ON D.id = C.category\n"
+                + "JOIN SALES A ON C.id = A.book\n"
+                + "JOIN STORES B ON A.store = B.id\n"
+                + " WHERE  D.name = ?", q.getStatement());
+    }
+
+    @Test
+    public void padsListToBucket()
+    {
+        QueryView v = library.inList();
+        assertEquals("SELECT A.title FROM\n"
+                + "BOOKS A\n"
+                + " WHERE  A.id IN (?)  AND  A.issued < ?\n"
+                + " ORDER BY A.title", v.getQuery().getStatement());
+        Query q = v.getQuery(new int[] { 3, 1 }, InListPolicy.DEFAULT);
+        assertEquals("SELECT A.title FROM\n"
+                + "BOOKS A\n"
+                + " WHERE  A.id IN (?, ?, ?, ?)  AND  A.issued < ?\n"
+                + " ORDER BY A.title", q.getStatement());
+        assertEquals(5, q.getParamLayout().size());
+        assertTrue(q == v.getQuery(new int[] { 4, 1 }, InListPolicy.DEFAULT));
+    }
+
+    @Test
+    public void readsLongListFromTable()
+    {
+        Query q = library.inList().getQuery(new int[] { 3, 1 },
+                new InListPolicy(2, "JQUBE_IN_LIST", "LIST_ID", "VAL"));
+        assertEquals("SELECT A.title FROM\n"
+                + "BOOKS A\n"
+                + " WHERE  A.id IN (SELECT VAL FROM JQUBE_IN_LIST WHERE LIST_ID = 0)"
+                + "  AND  A.issued < ?\n"
+                + " ORDER BY A.title", q.getStatement());
+        assertEquals(1, q.getParamLayout().size());
+    }
+
+    @Test
+    public void limitsPage()
+    {
+        QueryView v = library.paged();
+        String query = "SELECT A.title, A.issued, A.id FROM\n"
+                + "BOOKS A\n"
+                + " WHERE  A.issued > ?\n"
+                + " ORDER BY A.issued, A.id\n";
+        assertEquals(query + " OFFSET ? ROWS FETCH NEXT ? ROWS ONLY", v
+                .getPageQuery(Dialect.STANDARD).getStatement());
+        assertEquals(query + " LIMIT ? OFFSET ?",
+                v.getPageQuery(Dialect.LIMIT_OFFSET).getStatement());
+        assertEquals(3, v.getPageQuery(Dialect.LIMIT_OFFSET).getParamLayout()
+                .size());
+    }
+
+    @Test
+    public void seeksAfterRow()
+    {
+        QueryView v = library.paged();
+        String query = "SELECT A.title, A.issued, A.id FROM\n"
+                + "BOOKS A\n"
+                + " WHERE ( A.issued > ?)\n";
+        assertEquals(query
+                + " AND (A.issued > ? OR (A.issued = ? AND (A.id > ?)))\n"
+                + " ORDER BY A.issued, A.id\n"
+                + " OFFSET 0 ROWS FETCH NEXT ? ROWS ONLY",
+                v.getSeekQuery(Dialect.STANDARD).getStatement());
+        assertEquals(query
+                + " AND (A.issued, A.id) > (?, ?)\n"
+                + " ORDER BY A.issued, A.id\n"
+                + " LIMIT ?", v.getSeekQuery(Dialect.LIMIT_OFFSET)
+                .getStatement());
+        assertEquals(4, v.getSeekQuery(Dialect.LIMIT_OFFSET).getParamLayout()
+                .size());
+    }
+
+    @Test
+    public void readsKeysAfterColumnsOfBatch()
+    {
+        QueryView v = library.byPublisher();
+        assertTrue(v.isBatchable());
+        assertEquals("SELECT A.title, B.name, B.name FROM\n"
+                + "BOOKS A\n"
+                + "JOIN PUBLISHERS B ON A.publisher = B.id\n"
+                + " WHERE B.name IN (?, ?, ?)\n"
+                + " ORDER BY A.title", v.getBatchQuery(3).getStatement());
+        assertEquals(2, v.getBatchQuery(3).getSelectAttributes().size());
+        v = library.byPublisherAndCategory();
+        assertEquals("SELECT A.title, B.name, C.name as category, B.name, C.name FROM\n"
+                + "BOOKS A\n"
+                + "JOIN PUBLISHERS B ON A.publisher = B.id\n"
+                + "JOIN CATEGORIES C ON A.category = C.id\n"
+                + " WHERE ((B.name = ? AND C.name = ?) OR (B.name = ? AND C.name = ?))\n"
+                + " ORDER BY A.title", v.getBatchQuery(2).getStatement());
+        assertEquals(4, v.getBatchQuery(2).getParamLayout().size());
+    }
+
+    @Test
+    public void doesNotBatchSemiJoinedKeys()
+    {
+        assertFalse(library.semiJoined().isBatchable());
+    }
+}
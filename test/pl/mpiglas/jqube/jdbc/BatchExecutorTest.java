@@ -0,0 +1,178 @@
+/*
+ * Select query builder
+ * Copyright (C) 2014  Milosz Piglas [milosz@archeocs.com]
+ *    
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package pl.mpiglas.jqube.jdbc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import pl.mpiglas.jqube.Library;
+import pl.mpiglas.jqube.QueryView;
+
+/**
+ * Runs views of {@link Library} for many sets of parameters on H2 database
+ * and compares rows with rows read by separate queries.
+ * 
+ */
+public class BatchExecutorTest
+{
+    /**
+     * Collects titles (the first column) of each set.
+     */
+    private static final class Titles implements BatchHandler
+    {
+        private final List<List<String>> titles = new ArrayList<>();
+
+        Titles(int aTuples)
+        {
+            for (int i = 0; i < aTuples; i++)
+            {
+                titles.add(new ArrayList<String>());
+            }
+        }
+
+        @Override
+        public void row(int aTuple, ResultSet aRow) throws SQLException
+        {
+            titles.get(aTuple).add(aRow.getString(1));
+        }
+    }
+
+    private final Library library = new Library();
+    private Connection connection;
+    private QueryExecutor executor;
+
+    @Before
+    public void open() throws SQLException
+    {
+        connection = Library.open();
+        executor = new QueryExecutor(connection, 4);
+    }
+
+    @After
+    public void close() throws SQLException
+    {
+        executor.close();
+        connection.close();
+    }
+
+    private List<List<String>> batch(QueryView aView, int aBatchSize,
+            List<Object[]> aTuples) throws SQLException
+    {
+        Titles handler = new Titles(aTuples.size());
+        new BatchExecutor(executor, aBatchSize).execute(aView, aTuples,
+                handler);
+        return handler.titles;
+    }
+
+    private List<List<String>> separately(QueryView aView,
+            List<Object[]> aTuples) throws SQLException
+    {
+        Titles handler = new Titles(aTuples.size());
+        new BatchExecutor(executor, 1).execute(aView.getQuery(), aTuples,
+                handler);
+        return handler.titles;
+    }
+
+    @Test
+    public void readsRowsOfEachSet() throws SQLException
+    {
+        QueryView v = library.byPublisher();
+        List<Object[]> tuples = Arrays.asList(new Object[] { "Helion" },
+                new Object[] { "PWN" }, new Object[] { "Helion" },
+                new Object[] { "Nobody" });
+        List<String> helion = Arrays.asList("Ant in Action",
+                "Database Programming with JDBC", "Thinking in Java");
+        List<List<String>> expected = Arrays.asList(helion,
+                Arrays.asList("SQL for Smarties"), helion,
+                Collections.<String> emptyList());
+        assertEquals(expected, batch(v, 3, tuples));
+        // the last group is padded, so both groups share statement
+        assertEquals(1, executor.getPrepared());
+        assertEquals(expected, separately(v, tuples));
+    }
+
+    @Test
+    public void readsRowsOfEachSetOfManyKeys() throws SQLException
+    {
+        QueryView v = library.byPublisherAndCategory();
+        List<Object[]> tuples = Arrays.asList(
+                new Object[] { "Helion", "Java" },
+                new Object[] { "Helion", "SQL" },
+                new Object[] { "PWN", "Poetry" });
+        List<List<String>> expected = Arrays.asList(
+                Arrays.asList("Ant in Action", "Thinking in Java"),
+                Arrays.asList("Database Programming with JDBC"),
+                Collections.<String> emptyList());
+        assertEquals(expected, batch(v, 2, tuples));
+        assertEquals(expected, separately(v, tuples));
+    }
+
+    @Test
+    public void runsQueryForEachSetIfNotBatchable() throws SQLException
+    {
+        QueryView v = library.semiJoined();
+        List<Object[]> tuples = Arrays.asList(new Object[] { "Gliwice", 2 },
+                new Object[] { "Krakow", 2 });
+        assertEquals(Arrays.asList(
+                Arrays.asList("SQL for Smarties", "Thinking in Java"),
+                Arrays.asList("Ant in Action", "Thinking in Java")),
+                batch(v, 8, tuples));
+        assertEquals(1, executor.getPrepared());
+        assertEquals(1, executor.getReused());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsSetOfWrongSize() throws SQLException
+    {
+        batch(library.byPublisher(), 2,
+                Collections.singletonList(new Object[] { "Helion", "PWN" }));
+    }
+
+    @Test
+    public void failsIfKeysOfRowDoNotMatch() throws SQLException
+    {
+        try (Statement s = connection.createStatement())
+        {
+            s.execute("ALTER TABLE PUBLISHERS ALTER COLUMN NAME VARCHAR_IGNORECASE(40)");
+        }
+        try
+        {
+            batch(library.byPublisher(), 2,
+                    Collections.singletonList(new Object[] { "helion" }));
+        } catch (SQLException e)
+        {
+            assertTrue(e.getMessage().contains("[Helion]"));
+            return;
+        }
+        fail("Rows of key in other case were assigned");
+    }
+}
@@ -0,0 +1,279 @@
+/*
+ * Select query builder
+ * Copyright (C) 2014  Milosz Piglas [milosz@archeocs.com]
+ *    
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package pl.mpiglas.jqube.jdbc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import pl.mpiglas.jqube.Dialect;
+import pl.mpiglas.jqube.InListPolicy;
+import pl.mpiglas.jqube.Library;
+import pl.mpiglas.jqube.Query;
+import pl.mpiglas.jqube.QueryView;
+import pl.mpiglas.jqube.Schema;
+
+/**
+ * Runs statements of rewrites on H2 database of {@link Library} and checks
+ * their rows.
+ * 
+ */
+public class QueryExecutorTest
+{
+    private final Library library = new Library();
+    private Connection connection;
+    private QueryExecutor executor;
+
+    @Before
+    public void open() throws SQLException
+    {
+        connection = Library.open();
+        executor = new QueryExecutor(connection, 4);
+    }
+
+    @After
+    public void close() throws SQLException
+    {
+        executor.close();
+        connection.close();
+    }
+
+    /**
+     * Reads all rows of result, columns of row are separated with '|'.
+     */
+    static List<String> rows(ResultSet aResult) throws SQLException
+    {
+        List<String> rows = new ArrayList<>();
+        try (ResultSet rs = aResult)
+        {
+            int columns = rs.getMetaData().getColumnCount();
+            while (rs.next())
+            {
+                StringBuilder row = new StringBuilder();
+                for (int i = 1; i <= columns; i++)
+                {
+                    row.append(i == 1 ? "" : "|").append(rs.getObject(i));
+                }
+                rows.add(row.toString());
+            }
+        }
+        return rows;
+    }
+
+    private List<String> rows(Query aQuery, Object... aValues)
+            throws SQLException
+    {
+        return rows(executor.execute(aQuery, aValues));
+    }
+
+    @Test
+    public void reusesPreparedStatements() throws SQLException
+    {
+        Query q = library.pushed().getQuery();
+        PreparedStatement first = executor.prepare(q, 1);
+        assertTrue(first == executor.prepare(q, 2));
+        assertEquals(1, executor.getPrepared());
+        assertEquals(1, executor.getReused());
+        assertEquals(Arrays.asList("PWN|1"), rows(q, 2));
+        assertEquals(2, executor.getReused());
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsedStatement() throws SQLException
+    {
+        Query[] queries = { library.eliminated().getQuery(),
+                library.flattened().getQuery(), library.pushed().getQuery(),
+                library.semiJoined().getQuery(),
+                library.semiJoinedOr().getQuery() };
+        PreparedStatement first = executor.prepare(queries[0]);
+        executor.prepare(queries[1], 0);
+        executor.prepare(queries[2], 1);
+        executor.prepare(queries[3], "Gliwice", 0);
+        executor.prepare(queries[0]);
+        executor.prepare(queries[4], "%", 0);
+        assertEquals(4, executor.size());
+        assertEquals(1, executor.getEvicted());
+        assertTrue(first == executor.prepare(queries[0]));
+        executor.prepare(queries[1], 0);
+        assertEquals(6, executor.getPrepared());
+        assertEquals(2, executor.getEvicted());
+    }
+
+    @Test
+    public void bindsNullValues() throws SQLException
+    {
+        assertEquals(Collections.<String> emptyList(),
+                rows(library.pushed().getQuery(), (Object) null));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsMissingValues() throws SQLException
+    {
+        executor.execute(library.semiJoined().getQuery(), "Gliwice");
+    }
+
+    @Test
+    public void readsRowsOfEliminatedJoins() throws SQLException
+    {
+        assertEquals(Arrays.asList("Ant in Action|1",
+                "Database Programming with JDBC|1", "Poems|3",
+                "SQL for Smarties|2", "Thinking in Java|1"),
+                rows(library.eliminated().getQuery()));
+    }
+
+    @Test
+    public void readsRowsOfFlattenedView() throws SQLException
+    {
+        assertEquals(Arrays.asList("5|Thinking in Java|Helion",
+                "7|Ant in Action|Helion", "10|Thinking in Java|Helion"),
+                rows(library.flattened().getQuery(), 4));
+    }
+
+    @Test
+    public void readsRowsOfPushedCondition() throws SQLException
+    {
+        assertEquals(Arrays.asList("Helion|3"),
+                rows(library.pushed().getQuery(), 1));
+    }
+
+    @Test
+    public void readsRowsOfSemiJoins() throws SQLException
+    {
+        QueryView v = library.semiJoined();
+        assertEquals(Arrays.asList("SQL for Smarties", "Thinking in Java"),
+                rows(v.getQuery(), "Gliwice", 2));
+        assertEquals(Arrays.asList("Database Programming with JDBC",
+                "SQL for Smarties", "Thinking in Java"),
+                rows(v.getQuery(1L), "Gliwice"));
+        // the first book has two sales, it is read once
+        assertEquals(Arrays.asList("Ant in Action",
+                "Database Programming with JDBC", "SQL for Smarties",
+                "Thinking in Java"), rows(v.getQuery(0L)));
+        assertEquals(Arrays.asList("Ant in Action", "Thinking in Java"),
+                rows(library.semiJoinedOr().getQuery(), "Poems", 6));
+    }
+
+    @Test
+    public void readsRowsOfCommonViews() throws SQLException
+    {
+        List<String> expected = Arrays.asList("Helion|3", "PWN|1", "Znak|1");
+        assertEquals(expected,
+                rows(library.common(Dialect.LIMIT_OFFSET).getQuery()));
+        assertEquals(expected, rows(library.common(
+                Dialect.LIMIT_OFFSET_NO_WITH).getQuery()));
+    }
+
+    @Test
+    public void readsTheSameRowsInAnyOrderOfJoins() throws SQLException
+    {
+        Schema s = library.schema();
+        s.setRowCount(library.sales, 50000000);
+        s.setRowCount(library.categories, 20);
+        s.setSelectivity(library.categories.getAttribute("name"), 0.05);
+        List<String> ordered = rows(library.ordered(s).getQuery(), "Java");
+        List<String> unordered = rows(library.ordered(library.schema)
+                .getQuery(), "Java");
+        Collections.sort(ordered);
+        Collections.sort(unordered);
+        assertEquals(Arrays.asList("10|Gliwice|Thinking in Java|Java",
+                "5|Krakow|Thinking in Java|Java",
+                "7|Krakow|Ant in Action|Java"), ordered);
+        assertEquals(ordered, unordered);
+    }
+
+    @Test
+    public void padsListsOfInCondition() throws SQLException
+    {
+        QueryView v = library.inList();
+        assertEquals(Arrays.asList("Ant in Action", "Thinking in Java"),
+                rows(executor.execute(v, Arrays.asList(1, 2, 3), 2008)));
+        assertEquals(Arrays.asList("SQL for Smarties"),
+                rows(executor.execute(v, new Object[] { 2 }, 2011)));
+        assertEquals(Collections.<String> emptyList(),
+                rows(executor.execute(v, Collections.emptyList(), 2011)));
+    }
+
+    @Test
+    public void readsLongListsFromTable() throws SQLException
+    {
+        executor.setInListPolicy(new InListPolicy(2, "JQUBE_IN_LIST",
+                "LIST_ID", "VAL"));
+        QueryView v = library.inList();
+        assertEquals(Arrays.asList("Ant in Action", "Thinking in Java"),
+                rows(executor.execute(v, Arrays.asList(1, 2, 3), 2008)));
+        // rows of the previous list are replaced
+        assertEquals(Arrays.asList("Database Programming with JDBC", "Poems"),
+                rows(executor.execute(v, Arrays.asList(4, 5, 1), 2006)));
+        assertEquals(Arrays.asList("Thinking in Java"),
+                rows(executor.execute(v, Arrays.asList(1), 2008)));
+    }
+
+    @Test
+    public void readsPages() throws SQLException
+    {
+        QueryView v = library.paged();
+        List<String> page = Arrays.asList("Thinking in Java|2006|1",
+                "Ant in Action|2007|3");
+        // slots of offset and limit do not depend on dialect
+        assertEquals(page,
+                rows(v.getPageQuery(Dialect.STANDARD), 1999, 1, 2));
+        assertEquals(page,
+                rows(v.getPageQuery(Dialect.LIMIT_OFFSET), 1999, 1, 2));
+    }
+
+    @Test
+    public void seeksPageAfterRow() throws SQLException
+    {
+        QueryView v = library.paged();
+        List<String> page = Arrays.asList("Ant in Action|2007|3",
+                "SQL for Smarties|2010|2");
+        assertEquals(page, rows(v.getSeekQuery(Dialect.STANDARD), 1999, 2006,
+                1, 2));
+        assertEquals(page, rows(v.getSeekQuery(Dialect.LIMIT_OFFSET), 1999,
+                2006, 1, 2));
+        assertEquals(Arrays.asList("SQL for Smarties|2010|2"), rows(
+                v.getSeekQuery(Dialect.LIMIT_OFFSET), 1999, 2007, 3, 2));
+    }
+
+    @Test
+    public void readsRowsWithTypedAccessors() throws SQLException
+    {
+        try (RowReader r = executor.read(library.common(Dialect.LIMIT_OFFSET)
+                .getQuery(), 0))
+        {
+            assertTrue(r.next());
+            assertEquals("Helion", r.getObject(0));
+            // COUNT is BIGINT
+            assertEquals(3, r.getInt(1));
+            assertEquals(3L, r.getLong(1));
+            assertEquals(3.0, r.getDouble(1), 0.0);
+        }
+    }
+}